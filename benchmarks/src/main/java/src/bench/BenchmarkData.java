@@ -0,0 +1,48 @@
+package src.bench;
+
+import src.model.Coordinates;
+import src.model.FuelType;
+import src.model.Vehicle;
+import src.model.VehicleType;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Воспроизводимые наборы элементов для бенчмарков: одинаковое зерно даёт одинаковые элементы
+ */
+final class BenchmarkData {
+    static final String LOGIN = "bench";
+    private static final VehicleType[] TYPES = VehicleType.values();
+    private static final FuelType[] FUEL_TYPES = FuelType.values();
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Элемент с данным id: мощность из 10 000 значений, колёс от 0 до 15, дата в пределах трёх лет
+     */
+    static Vehicle vehicle(long id, SplittableRandom random) {
+        Vehicle vehicle = new Vehicle(id, "vehicle" + id,
+                new Coordinates(random.nextInt(-900, 900), random.nextInt(-900, 900)),
+                EPOCH.plusSeconds(random.nextInt(100_000_000)), (long) random.nextInt(10_000), random.nextInt(16),
+                TYPES[random.nextInt(TYPES.length)], FUEL_TYPES[random.nextInt(FUEL_TYPES.length)]);
+        vehicle.setUserLogin(LOGIN);
+        return vehicle;
+    }
+
+    /**
+     * count элементов с id от 1 до count
+     */
+    static List<Vehicle> vehicles(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Vehicle> vehicles = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            vehicles.add(vehicle(i, random));
+        }
+        return vehicles;
+    }
+}
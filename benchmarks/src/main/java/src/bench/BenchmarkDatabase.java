@@ -0,0 +1,73 @@
+package src.bench;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import src.ConnectionPool;
+import src.Repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * База для бенчмарков Repository: встроенный PostgreSQL во временном каталоге или, если задано
+ * свойство bench.db.url, готовая база (bench.db.user, bench.db.password). Схема создаётся из schema.sql,
+ * отслеживание изменений включается так же, как при запуске приложения.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+    private static final String URL = System.getProperty("bench.db.url");
+    private static final String USER = System.getProperty("bench.db.user", "postgres");
+    private static final String PASSWORD = System.getProperty("bench.db.password", "");
+
+    private final EmbeddedPostgres embedded;
+    private final String url;
+    private final Repository repository;
+
+    BenchmarkDatabase() throws IOException, SQLException {
+        if (URL == null) {
+            embedded = EmbeddedPostgres.builder().start();
+            url = embedded.getJdbcUrl(USER, "postgres");
+        } else {
+            embedded = null;
+            url = URL;
+        }
+        execute(new String(readSchema(), StandardCharsets.UTF_8));
+        repository = new Repository(new ConnectionPool(url, USER, PASSWORD, 10, 2,
+                600_000, 1_800_000, 30_000, 64, 2));
+        repository.enableChangeTracking();
+    }
+
+    private static byte[] readSchema() throws IOException {
+        try (InputStream schema = BenchmarkDatabase.class.getResourceAsStream("/schema.sql")) {
+            if (schema == null) {
+                throw new IOException("schema.sql не найден");
+            }
+            return schema.readAllBytes();
+        }
+    }
+
+    Repository repository() {
+        return repository;
+    }
+
+    /**
+     * Выполняет команды SQL на отдельном соединении
+     */
+    void execute(String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, USER, PASSWORD);
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        repository.close();
+        if (embedded != null) {
+            embedded.close();
+        }
+    }
+}
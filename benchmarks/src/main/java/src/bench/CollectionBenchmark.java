@@ -0,0 +1,94 @@
+package src.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import src.collection.VehicleCollection;
+import src.model.Vehicle;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Команды над коллекцией в зависимости от её размера.
+ * <p>
+ * addRemove добавляет и сразу удаляет элемент, так что размер не меняется; treeSetAddRemove делает то же
+ * с TreeSet, который хранил коллекцию раньше, - как точка отсчёта. Для размера 10 000 000 нужна куча
+ * около 8 ГБ: {@code -jvmArgsAppend -Xmx8g}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollectionBenchmark {
+    private static final int MASK = 1023;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private VehicleCollection collection;
+    private TreeSet<Vehicle> treeSet;
+    private Vehicle[] extra;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Vehicle> vehicles = BenchmarkData.vehicles(size, 42);
+        collection = new VehicleCollection();
+        collection.addAll(vehicles);
+        treeSet = new TreeSet<>(vehicles);
+        SplittableRandom random = new SplittableRandom(7);
+        extra = new Vehicle[MASK + 1];
+        for (int i = 0; i < extra.length; i++) {
+            extra[i] = BenchmarkData.vehicle(size + 1L + i, random);
+        }
+    }
+
+    @Benchmark
+    public Vehicle addRemove() {
+        Vehicle vehicle = extra[next++ & MASK];
+        collection.add(vehicle);
+        return collection.remove(vehicle.getId());
+    }
+
+    @Benchmark
+    public boolean treeSetAddRemove() {
+        Vehicle vehicle = extra[next++ & MASK];
+        treeSet.add(vehicle);
+        return treeSet.remove(vehicle);
+    }
+
+    /**
+     * group_counting_by_engine_power без аргументов: все группы
+     */
+    @Benchmark
+    public void groupCountingByEnginePower(Blackhole blackhole) {
+        collection.forEachEnginePowerGroup(Long.MIN_VALUE, Long.MAX_VALUE, (power, count) -> {
+            blackhole.consume(power);
+            blackhole.consume(count);
+        });
+    }
+
+    /**
+     * group_counting_by_engine_power from to: десятая часть значений и итог по диапазону
+     */
+    @Benchmark
+    public long groupCountingByEnginePowerRange(Blackhole blackhole) {
+        collection.forEachEnginePowerGroup(1000, 1999, (power, count) -> {
+            blackhole.consume(power);
+            blackhole.consume(count);
+        });
+        return collection.countEnginePowerInRange(1000, 1999);
+    }
+
+    /**
+     * filter_by_number_of_wheels: выборка около 1/16 элементов
+     */
+    @Benchmark
+    public List<Vehicle> filterByNumberOfWheels() {
+        return collection.getByNumberOfWheels(4);
+    }
+}
@@ -0,0 +1,101 @@
+package src.bench;
+
+import org.openjdk.jmh.annotations.*;
+import src.Repository;
+import src.model.User;
+import src.model.Vehicle;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Операции Repository над таблицей из rows строк. Кэш пользователей отключён, чтобы getUser
+ * каждый раз доходил до базы. Вставки за итерацию немного увеличивают таблицу, поэтому перед каждой
+ * итерацией она заполняется заново.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dusers.cache.ttl=0")
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private BenchmarkDatabase database;
+    private Repository repository;
+    private SplittableRandom random;
+    private long[] ids;
+
+    @Setup(Level.Trial)
+    public void startDatabase() throws IOException, SQLException {
+        database = new BenchmarkDatabase();
+        repository = database.repository();
+        repository.addUser(new User(BenchmarkData.LOGIN, "$sha224$"));
+    }
+
+    @Setup(Level.Iteration)
+    public void fillTable() throws SQLException {
+        database.execute("TRUNCATE vehicle");
+        List<Vehicle> vehicles = BenchmarkData.vehicles(rows, 42);
+        repository.copyVehicles(vehicles);
+        ids = vehicles.stream().mapToLong(Vehicle::getId).toArray();
+        database.execute("VACUUM ANALYZE vehicle");
+        random = new SplittableRandom(7);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopDatabase() throws IOException {
+        database.close();
+    }
+
+    @Benchmark
+    public Vehicle addVehicle() {
+        Vehicle vehicle = BenchmarkData.vehicle(0, random);
+        repository.addVehicle(vehicle);
+        return vehicle;
+    }
+
+    @Benchmark
+    public void updateVehicle() {
+        Vehicle vehicle = BenchmarkData.vehicle(ids[random.nextInt(rows)], random);
+        repository.updateVehicle(vehicle);
+    }
+
+    @Benchmark
+    public void addRemoveVehicle() {
+        Vehicle vehicle = BenchmarkData.vehicle(0, random);
+        repository.addVehicle(vehicle);
+        repository.removeVehicle(vehicle.getId());
+    }
+
+    @Benchmark
+    public User getUser() {
+        return repository.getUser(BenchmarkData.LOGIN);
+    }
+
+    /**
+     * Вставка пачки из BATCH элементов через COPY; время на пачку
+     */
+    @Benchmark
+    public Object copyVehicles() {
+        List<Vehicle> batch = BenchmarkData.vehicles(BATCH, random.nextLong());
+        return repository.copyVehicles(batch);
+    }
+
+    /**
+     * Полное чтение таблицы, как при запуске без снимка
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long streamVehicles() {
+        return repository.streamVehicles(vehicle -> {
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package src.bench;
+
+import org.openjdk.jmh.annotations.*;
+import src.SecurityUtil;
+import src.security.Pbkdf2PasswordHasher;
+import src.security.Sha224PasswordHasher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хэширование паролей: прежний формат hash224, SHA-224 с префиксом и проверка PBKDF2 с разной стоимостью
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SecurityBenchmark {
+    @Param({"password", "a much longer passphrase of about sixty characters in total"})
+    public String password;
+
+    private final Sha224PasswordHasher sha224 = new Sha224PasswordHasher();
+
+    @Benchmark
+    public String hash224() {
+        return SecurityUtil.hash224(password);
+    }
+
+    @Benchmark
+    public String sha224Hash() {
+        return sha224.hash(password);
+    }
+
+    /**
+     * Проверка PBKDF2; стоимость растёт линейно с числом итераций
+     */
+    @State(Scope.Thread)
+    public static class Pbkdf2State {
+        @Param({"10000", "310000"})
+        public int iterations;
+
+        private Pbkdf2PasswordHasher hasher;
+        private String stored;
+
+        @Setup
+        public void setUp() {
+            hasher = new Pbkdf2PasswordHasher(iterations);
+            stored = hasher.hash("password");
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean pbkdf2Verify(Pbkdf2State state) {
+        return state.hasher.verify("password", state.stored);
+    }
+}
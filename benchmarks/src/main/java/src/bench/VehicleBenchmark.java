@@ -0,0 +1,54 @@
+package src.bench;
+
+import org.openjdk.jmh.annotations.*;
+import src.model.Coordinates;
+import src.model.FuelType;
+import src.model.Vehicle;
+import src.model.VehicleType;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение элементов (порядок коллекции) и создание элемента с новым id из счётчика Vehicle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VehicleBenchmark {
+    private static final int MASK = 1023;
+
+    private Vehicle[] vehicles;
+    private Coordinates coordinates;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<Vehicle> list = BenchmarkData.vehicles(MASK + 1, 42);
+        vehicles = list.toArray(new Vehicle[0]);
+        coordinates = new Coordinates(1, 2);
+    }
+
+    @Benchmark
+    public int compareTo() {
+        int i = next++ & MASK;
+        return vehicles[i].compareTo(vehicles[(i + 1) & MASK]);
+    }
+
+    /**
+     * Конструктор без id берёт его у generateId и ставит текущую дату создания
+     */
+    @Benchmark
+    public Vehicle generateId() {
+        return new Vehicle("vehicle", coordinates, 100L, 4, VehicleType.BOAT, FuelType.PLASMA);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Vehicle generateIdContended() {
+        return new Vehicle("vehicle", coordinates, 100L, 4, VehicleType.BOAT, FuelType.PLASMA);
+    }
+}
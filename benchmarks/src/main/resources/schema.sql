@@ -0,0 +1,17 @@
+CREATE TABLE IF NOT EXISTS user_info (
+    id serial PRIMARY KEY,
+    login text NOT NULL,
+    password text NOT NULL
+);
+CREATE TABLE IF NOT EXISTS vehicle (
+    id bigserial PRIMARY KEY,
+    name text NOT NULL,
+    coord_x integer,
+    coord_y integer,
+    creation_date timestamp NOT NULL,
+    engine_power bigint,
+    number_wheels integer,
+    vehicle_type integer,
+    fuel_type integer,
+    user_login text
+);
@@ -1,28 +1,118 @@
 package src;
 
+import src.collection.VehicleCollection;
+import src.io.BufferedOutput;
+import src.io.VehicleCsvReader;
+import src.io.VehicleCsvWriter;
+import src.io.VehicleSnapshot;
+import src.metrics.Metrics;
 import src.model.User;
 import src.model.Vehicle;
+import src.script.ScriptCommand;
+import src.script.ScriptParser;
+import src.script.ScriptReport;
+import src.script.ScriptScheduler;
 
 import java.io.*;
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.Optional;
 import java.util.Scanner;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Реализует исполнение команд, вводимых пользователем (с помощью консоли или скрипта)
+ * Реализует исполнение команд, вводимых пользователем (с помощью консоли или скрипта).
+ * Каждый экземпляр - отдельный сеанс со своим пользователем и потоками ввода-вывода;
+ * репозиторий и коллекция могут быть общими для нескольких сеансов.
  */
 public class CommandInterpreter {
-    private TreeSet<Vehicle> vehicles = new TreeSet<>();
-    private LocalDateTime initDate;
-    private Repository repository;
+    private static final int LOAD_PROGRESS_STEP = Integer.getInteger("load.progressStep", 100_000);
+    private static final boolean READ_YOUR_WRITES = Boolean.parseBoolean(System.getProperty("pipeline.readYourWrites", "true"));
+    private static final PrintStream NO_PROMPTS = new PrintStream(OutputStream.nullOutputStream());
+    private static final int MAX_SCRIPT_DEPTH = Integer.getInteger("script.maxDepth", 16);
+    private static final int SCRIPT_WORKERS = Integer.getInteger("script.workers", Runtime.getRuntime().availableProcessors());
+
+    private final VehicleCollection vehicles;
+    private final Repository repository;
+    private final CommandPipeline pipeline;
+    private Scanner in;
+    private final PrintStream out;
+    /**
+     * Поток для приглашений к вводу; при выполнении скрипта приглашения не выводятся
+     */
+    private PrintStream prompts;
+    private final BufferedOutput output;
     private User user;
+    private boolean exitRequested;
+    private int scriptDepth;
+    private long scriptCommands;
+    /**
+     * Количество ошибок сеанса; ошибки записей сообщаются из потоков конвейера
+     */
+    private final AtomicLong errors = new AtomicLong();
+    /**
+     * Пути выполняющихся скриптов, от самого вложенного к внешнему; используется для обнаружения циклов
+     */
+    private final Deque<Path> scriptStack = new ArrayDeque<>();
+    private final List<VehicleMutation> pendingMutations = new ArrayList<>();
+    /**
+     * Файл и строка выполняемой команды скрипта для сообщений об ошибках; null вне скрипта
+     */
+    private String scriptPosition;
+    /**
+     * Позиция в скрипте команды, с которой начинаются накопленные изменения
+     */
+    private String pendingPosition;
+    /**
+     * Незавершённые записи сеанса: запись удаляет себя отсюда, когда завершится
+     */
+    private final Set<CompletableFuture<Void>> pendingWrites = ConcurrentHashMap.newKeySet();
+    private VehicleSync sync;
 
     public CommandInterpreter() {
-        repository = new Repository();
+        this(Repository.fromSystemProperties(), new VehicleCollection(), CommandPipeline.fromSystemProperties(),
+                new Scanner(System.in), System.out);
+    }
+
+    public CommandInterpreter(Repository repository, VehicleCollection vehicles, CommandPipeline pipeline,
+                              Scanner in, PrintStream out) {
+        this.repository = repository;
+        this.vehicles = vehicles;
+        this.pipeline = pipeline;
+        this.in = in;
+        this.out = out;
+        this.prompts = out;
+        this.output = new BufferedOutput(out);
+    }
+
+    /**
+     * Читает и исполняет команды, пока не закончится ввод или не будет введена команда exit
+     */
+    public void run() {
+        while (!exitRequested) {
+            out.println("Введите команду:");
+            if (!in.hasNextLine()) {
+                break;
+            }
+            try {
+                commandHandler(in.nextLine().trim());
+            } catch (Exception e) {
+                handleError(e);
+            }
+        }
+        flushPendingMutations();
+        awaitWrites();
     }
 
     /**
@@ -30,92 +120,276 @@ public class CommandInterpreter {
      * Используется для обработки команд и перенаправления в соответствующие методы
      */
     public void commandHandler(String command){
-        String[] tokens = command.split("\\s+");
+        String[] tokens = ScriptParser.tokenize(command);
+        commandHandler(tokens.length == 0 ? new String[]{""} : tokens);
+    }
 
+    /**
+     * @param tokens Команда, уже разбитая на слова
+     */
+    private void commandHandler(String[] tokens) {
+        if (!isBatchable(tokens[0])) {
+            flushPendingMutations();
+        }
+
+        // в Metrics попадают только известные команды, чтобы опечатки не плодили гистограммы
+        long start = System.nanoTime();
+        boolean known = true;
         if (user == null) {
             switch (tokens[0]) {
                 case "registration" -> registration(tokens);
                 case "authorization" -> authorization(tokens);
-                default -> System.out.println("Доступны команды registration и authorization");
+                default -> {
+                    known = false;
+                    out.println("Доступны команды registration и authorization");
+                }
             }
         }
         else {
             try {
+                if (buildsOnCollection(tokens[0]) || READ_YOUR_WRITES && readsCollection(tokens[0])) {
+                    awaitWrites();
+                }
                 switch (tokens[0]) {
                     case "registration" -> registration(tokens);
                     case "authorization" -> authorization(tokens);
                     case "help" -> help();
                     case "info" -> info();
-                    case "show" -> show();
+                    case "show" -> show(tokens);
                     case "add" -> add();
                     case "update" -> update(tokens[1]);
                     case "remove_by_id" -> removeById(tokens[1]);
                     case "clear" -> clear();
                     case "execute_script" -> executeScript(tokens[1]);
+                    case "execute_scripts" -> executeScripts(tokens);
                     case "exit" -> exit();
                     case "add_if_max" -> addIfMax();
                     case "add_if_min" -> addIfMin();
                     case "remove_lower" -> removeLower();
-                    case "group_counting_by_engine_power" -> groupCountingByEnginePower();
+                    case "group_counting_by_engine_power" -> groupCountingByEnginePower(tokens);
                     case "filter_by_number_of_wheels" -> filterByNumberOfWheels(tokens[1]);
                     case "print_field_ascending_number_of_wheels" -> printFieldAscendingNumberOfWheels();
-                    default ->
-                            System.out.println("Неизвестная команда. Наберите help чтобы получить список доступных команд");
+                    case "pool_stats" -> poolStats();
+                    case "stats" -> stats();
+                    case "import_csv" -> importCsv(tokens[1]);
+                    case "export_csv" -> exportCsv(tokens[1]);
+                    default -> {
+                        known = false;
+                        out.println("Неизвестная команда. Наберите help чтобы получить список доступных команд");
+                    }
                 }
 
             } catch (Exception e) {
                 handleError(e);
             }
         }
+        if (known) {
+            Metrics.command(tokens[0]).record(System.nanoTime() - start);
+        }
     }
 
     /**
      * Выводит справку по доступным командам
      */
     private void help() {
-        System.out.println("Доступные команды:");
-        System.out.println("help - показать доступные команды");
-        System.out.println("info - показать информацию о коллекции");
-        System.out.println("show - показать все элементы");
-        System.out.println("add {элемент} - добавить элемент в коллекцию");
-        System.out.println("update id {элемент} - обновить элемент с заданным id");
-        System.out.println("remove_by_id id - удалить элемент с заданным id");
-        System.out.println("clear - удалить все элементы из коллекции");
-        System.out.println("save - сохранить коллекцию в файл");
-        System.out.println("execute_script file_name - выполнить команды из файла");
-        System.out.println("exit - выйти из программы");
-        System.out.println("add_if_max {элемент} - добавить элемент, если его значение больше максимального значения в коллекции");
-        System.out.println("add_if_min {элемент} - добавить элемент, если его значение меньше минимального значения в коллекции");
-        System.out.println("remove_lower {элемент} - удалить все элементы, которые меньше заданного элемента");
-        System.out.println("group_counting_by_engine_power - сгруппировать элементы по мощности двигателя и показать их количество");
-        System.out.println("filter_by_number_of_wheels numberOfWheels - показать элементы с заданным количеством колес");
-        System.out.println("print_field_ascending_number_of_wheels - показать значения поля 'количество колес' в порядке возрастания");
+        out.println("Доступные команды:");
+        out.println("help - показать доступные команды");
+        out.println("info - показать информацию о коллекции");
+        out.println("show [offset limit] - показать все элементы или limit элементов, начиная с offset");
+        out.println("add {элемент} - добавить элемент в коллекцию");
+        out.println("update id {элемент} - обновить элемент с заданным id");
+        out.println("remove_by_id id - удалить элемент с заданным id");
+        out.println("clear - удалить все элементы из коллекции");
+        out.println("save - сохранить коллекцию в файл");
+        out.println("execute_script file_name - выполнить команды из файла");
+        out.println("execute_scripts file_name... - выполнить несколько независимых скриптов параллельно");
+        out.println("exit - выйти из программы");
+        out.println("add_if_max {элемент} - добавить элемент, если его значение больше максимального значения в коллекции");
+        out.println("add_if_min {элемент} - добавить элемент, если его значение меньше минимального значения в коллекции");
+        out.println("remove_lower {элемент} - удалить все элементы, которые меньше заданного элемента");
+        out.println("group_counting_by_engine_power [from to] - сгруппировать элементы по мощности двигателя и показать их количество (можно ограничить диапазон мощности)");
+        out.println("filter_by_number_of_wheels numberOfWheels - показать элементы с заданным количеством колес");
+        out.println("print_field_ascending_number_of_wheels - показать значения поля 'количество колес' в порядке возрастания");
+        out.println("pool_stats - показать состояние пула соединений и кэша подготовленных запросов");
+        out.println("stats - показать задержки команд и запросов к базе (p50, p99, max) и счётчики строк");
+        out.println("import_csv file_name - добавить элементы из файла в формате data.csv");
+        out.println("export_csv file_name - сохранить коллекцию в файл в формате data.csv");
     }
 
     /**
      * Выводит в стандартный поток вывода информацию о коллекции (тип, дата инициализации, количество элементом
      */
     private void info() {
-        System.out.println("Collection type: " + vehicles.getClass().getName());
-        System.out.println("Initialization date: " + initDate.toString());
-        System.out.println("Number of elements: " + vehicles.size());
+        out.println("Collection type: " + vehicles.getCollectionType());
+        out.println("Initialization date: " + vehicles.getInitDate().toString());
+        out.println("Number of elements: " + vehicles.size());
     }
 
     /**
-     * Выводит в стандартный поток вывода все элементы коллекции в строковом представлении
+     * @param tokens Команда и, необязательно, смещение и количество элементов
+     * Выводит в стандартный поток вывода элементы коллекции в строковом представлении
      */
-    private void show() {
+    private void show(String[] tokens) {
+        long offset = 0;
+        long limit = Long.MAX_VALUE;
+        if (tokens.length == 3) {
+            offset = Long.parseLong(tokens[1]);
+            limit = Long.parseLong(tokens[2]);
+            if (offset < 0 || limit < 0) {
+                throw new IllegalArgumentException("Смещение и количество элементов не могут быть отрицательными");
+            }
+        }
+        long index = 0;
         for (Vehicle vehicle : vehicles) {
-            System.out.println(vehicle);
+            if (index - offset >= limit) {
+                break;
+            }
+            if (index++ >= offset) {
+                output.println(vehicle);
+            }
         }
+        output.flush();
     }
 
 
     public void add() {
-        Vehicle vehicle = Vehicle.fromUser();
+        Vehicle vehicle = Vehicle.fromUser(in, prompts);
         vehicle.setUserLogin(user.getLogin());
-        repository.addVehicle(vehicle);
-        vehicles.add(vehicle);
+        if (scriptDepth > 0) {
+            enqueue(VehicleMutation.insert(vehicle));
+            return;
+        }
+        write(vehicle.getId(), () -> {
+            repository.addVehicle(vehicle);
+            vehicles.add(vehicle);
+        });
+    }
+
+    /**
+     * Изменения, которые при выполнении скрипта накапливаются и записываются одной транзакцией
+     */
+    private boolean isBatchable(String command) {
+        return scriptDepth > 0 && switch (command) {
+            case "add", "update", "remove_by_id" -> true;
+            default -> false;
+        };
+    }
+
+    private void enqueue(VehicleMutation mutation) {
+        if (pendingMutations.isEmpty()) {
+            pendingPosition = scriptPosition;
+        }
+        pendingMutations.add(mutation);
+        if (pendingMutations.size() >= Repository.BATCH_SIZE) {
+            flushPendingMutations();
+        }
+    }
+
+    /**
+     * Индекс последнего ещё не записанного изменения элемента с данным id или -1.
+     * Команды скрипта сначала смотрят сюда: коллекция не видит изменений, накопленных этим же скриптом.
+     */
+    private int pendingIndexOf(long id) {
+        for (int i = pendingMutations.size() - 1; i >= 0; i--) {
+            VehicleMutation mutation = pendingMutations.get(i);
+            long mutatedId = mutation.kind() == VehicleMutation.Kind.DELETE ? mutation.id() : mutation.vehicle().getId();
+            if (mutatedId == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Текущая версия элемента: из накопленных изменений скрипта, если они его касаются, иначе из коллекции.
+     * Возвращает null, если элемента нет или он удалён этим же скриптом.
+     */
+    private Vehicle currentVersion(long id) {
+        int pending = scriptDepth > 0 ? pendingIndexOf(id) : -1;
+        return pending >= 0 ? pendingMutations.get(pending).vehicle() : vehicles.get(id);
+    }
+
+    /**
+     * Записывает в базу накопленные при выполнении скрипта изменения одной транзакцией
+     * и применяет их к коллекции в том же порядке
+     */
+    private void flushPendingMutations() {
+        if (pendingMutations.isEmpty()) {
+            return;
+        }
+        List<VehicleMutation> batch = new ArrayList<>(pendingMutations);
+        pendingMutations.clear();
+        write(0, pendingPosition, () -> {
+            repository.applyMutations(batch);
+            for (VehicleMutation mutation : batch) {
+                switch (mutation.kind()) {
+                    case INSERT -> vehicles.add(mutation.vehicle());
+                    case UPDATE -> vehicles.replace(mutation.vehicle());
+                    case DELETE -> {
+                        vehicles.remove(mutation.id());
+                        out.println("Element removed.");
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param key Ключ упорядочивания записи (id элемента)
+     * @param work Запись в базу и применение изменения к коллекции
+     * Передаёт запись в конвейер команд. Ошибка записи сообщается пользователю, когда запись завершится.
+     */
+    private void write(long key, Runnable work) {
+        write(key, scriptPosition, work);
+    }
+
+    /**
+     * @param position Позиция в скрипте, которая указывается в сообщении об ошибке записи
+     */
+    private void write(long key, String position, Runnable work) {
+        CompletableFuture<Void> written = pipeline.execute(key, work)
+                .exceptionally(e -> {
+                    // в прямом режиме исключение приходит как есть, из потоков конвейера - в CompletionException
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    handleError(cause instanceof Exception ? (Exception) cause : new RuntimeException(cause), position);
+                    return null;
+                });
+        // сначала добавляется, потом удаляется: уже завершённая запись удалится сразу
+        pendingWrites.add(written);
+        written.whenComplete((result, e) -> pendingWrites.remove(written));
+    }
+
+    /**
+     * Ждёт завершения всех записей, отправленных этим сеансом
+     */
+    private void awaitWrites() {
+        CompletableFuture.allOf(pendingWrites.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    /**
+     * Команды, которые выбирают или проверяют элементы по текущему состоянию коллекции и записывают
+     * результат. Перед ними сеанс всегда дожидается своих записей: иначе update скопирует устаревшую
+     * версию элемента и затрёт предыдущее изменение, а clear и remove_lower пропустят только что
+     * добавленные элементы. Ключ упорядочивания конвейера этого не гарантирует: add и clear идут
+     * с разными ключами и могут выполниться в любом порядке.
+     */
+    private static boolean buildsOnCollection(String command) {
+        return switch (command) {
+            case "update", "remove_by_id", "clear", "remove_lower" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Команды, выводящие состояние коллекции: перед ними сеанс дожидается своих записей,
+     * чтобы видеть результат собственных изменений
+     */
+    private static boolean readsCollection(String command) {
+        return switch (command) {
+            case "info", "show", "add_if_max", "add_if_min", "group_counting_by_engine_power",
+                    "filter_by_number_of_wheels", "print_field_ascending_number_of_wheels", "export_csv" -> true;
+            default -> false;
+        };
     }
 
     /**
@@ -123,18 +397,32 @@ public class CommandInterpreter {
      *               Обновляет значения элемента с данным id
      */
     public void update(String idString) {
-        int id = Integer.parseInt(idString);
-        for (Vehicle v : vehicles) {
-            if (v.getId() == id) {
-                if (v.getUserLogin().equals(user.getLogin())) {
-                    Vehicle.modifyFromUser(v);
-                    repository.updateVehicle(v);
-                }
-                else {
-                    System.out.println("У вас нет прав на редактирование этого объекта");
+        long id = Long.parseLong(idString);
+        Vehicle v = currentVersion(id);
+        if (v == null) {
+            return;
+        }
+        if (v.getUserLogin().equals(user.getLogin())) {
+            // изменения вводятся в копию, чтобы не держать элемент коллекции в изменяемом состоянии во время ввода
+            Vehicle modified = new Vehicle(v);
+            Vehicle.modifyFromUser(modified, in, prompts);
+            if (scriptDepth > 0) {
+                int pending = pendingIndexOf(id);
+                if (pending >= 0 && pendingMutations.get(pending).kind() == VehicleMutation.Kind.INSERT) {
+                    // элемент ещё не вставлен: вставляется сразу новая версия
+                    pendingMutations.set(pending, VehicleMutation.insert(modified));
+                } else {
+                    enqueue(VehicleMutation.update(modified));
                 }
-                break;
+                return;
             }
+            write(id, () -> {
+                repository.updateVehicle(modified);
+                vehicles.replace(modified);
+            });
+        }
+        else {
+            out.println("У вас нет прав на редактирование этого объекта");
         }
     }
 
@@ -144,18 +432,31 @@ public class CommandInterpreter {
      */
     private void removeById(String idString) {
         long id = Long.parseLong(idString);
-        Vehicle vehicle = vehicles.stream().filter(v -> v.getId() == id).findFirst().orElse(null);
+        Vehicle vehicle = currentVersion(id);
         if (vehicle == null) {
             throw new IllegalArgumentException("Element with given id not found.");
         }
         if (vehicle.getUserLogin().equals(user.getLogin())) {
-            repository.removeVehicle(id);
-            vehicles.remove(vehicle);
+            if (scriptDepth > 0) {
+                int pending = pendingIndexOf(id);
+                if (pending >= 0 && pendingMutations.get(pending).kind() == VehicleMutation.Kind.INSERT) {
+                    // элемент ещё не вставлен: вставка просто отменяется
+                    pendingMutations.remove(pending);
+                    out.println("Element removed.");
+                } else {
+                    enqueue(VehicleMutation.delete(id));
+                }
+                return;
+            }
+            write(id, () -> {
+                repository.removeVehicle(id);
+                vehicles.remove(id);
 
-            System.out.println("Element removed.");
+                out.println("Element removed.");
+            });
         }
         else {
-            System.out.println("У вас нет прав на удаление этого объекта");
+            out.println("У вас нет прав на удаление этого объекта");
         }
     }
 
@@ -163,95 +464,257 @@ public class CommandInterpreter {
      * Очищает коллекцию
      */
     private void clear() {
-        for (Vehicle v : vehicles) {
-            if (v.getUserLogin().equals(user.getLogin())) {
-                repository.removeVehicle(v.getId());
-            }
-        }
-
-        vehicles.removeIf(t -> t.getUserLogin().equals(user.getLogin()));
+        long[] ids = vehicles.getByUserLogin(user.getLogin()).stream()
+                .mapToLong(Vehicle::getId)
+                .toArray();
+        write(0, () -> {
+            repository.removeVehicles(ids);
+            vehicles.removeAll(ids);
+        });
     }
 
     /**
-     * Возвращает коллекцию, загруженную из CSV-файла
+     * Загружает коллекцию из базы данных потоком, сообщая о ходе загрузки каждые LOAD_PROGRESS_STEP элементов.
+     * Затем, если включена синхронизация, запускает VehicleSync: дальнейшие изменения таблицы,
+     * в том числе сделанные другими клиентами, переносятся в коллекцию без полной перезагрузки.
+     * Если при включённой синхронизации есть снимок коллекции, элементы берутся из него,
+     * а из базы читаются только изменения, сделанные после снимка.
      */
     public void load(){
-        List<Vehicle> list = repository.getVehicles();
-        vehicles = new TreeSet<>(list);
+        long start = System.nanoTime();
+        Long mark = null;
+        if (VehicleSync.ENABLED && sync == null) {
+            try {
+                repository.enableChangeTracking();
+                mark = repository.changeMark();
+            } catch (RuntimeException e) {
+                out.println("Синхронизация с базой отключена: " + e.getMessage());
+            }
+        }
+        vehicles.clear();
+        VehicleSnapshot.Contents snapshot = mark != null && VehicleSync.SNAPSHOT_ENABLED
+                ? VehicleSnapshot.read(VehicleSync.SNAPSHOT_PATH) : null;
+        long rows = 0;
+        if (snapshot != null) {
+            vehicles.addAll(snapshot.vehicles());
+            long[] changes = new long[1];
+            long next = repository.readChanges(snapshot.mark(), vehicle -> {
+                vehicles.add(vehicle);
+                changes[0]++;
+            }, id -> {
+                vehicles.remove(id);
+                changes[0]++;
+            });
+            if (next == Repository.CHANGES_EXPIRED) {
+                // удаления после снимка уже очищены: коллекция загружается целиком по отметке, взятой выше
+                out.println("Снимок устарел, коллекция загружается из базы");
+                vehicles.clear();
+                snapshot = null;
+            } else {
+                mark = next;
+                rows = vehicles.size();
+                out.println("Из снимка загружено элементов: " + snapshot.vehicles().size()
+                        + ", изменений из базы после снимка: " + changes[0]);
+            }
+        }
+        if (snapshot == null) {
+            rows = repository.streamVehicles(vehicle -> {
+                vehicles.add(vehicle);
+                if (vehicles.size() % LOAD_PROGRESS_STEP == 0) {
+                    out.println("Загружено элементов: " + vehicles.size());
+                }
+            });
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Загружено %d элементов за %.3f с (%.0f элементов/с)%n", rows, seconds,
+                seconds > 0 ? rows / seconds : 0);
+
+        if (mark != null) {
+            sync = new VehicleSync(repository, vehicles, mark);
+            sync.start();
+        }
     }
 
 
     /**
      * @param fileName Имя файла со скриптом
-     *                 Выполняет команды из файла как если бы они вводились в консоль
+     *                 Выполняет команды из файла как если бы они вводились в консоль.
+     *                 Файл разбирается целиком заранее; поля элементов команды читают из строк скрипта,
+     *                 идущих за ней. Подряд идущие add, update и remove_by_id записываются в базу
+     *                 одной транзакцией. В конце выводится скорость выполнения скрипта.
      */
     private void executeScript(String fileName) {
-        String currentLine;
+        ScriptReport report = runScript(fileName);
+        if (report != null) {
+            out.printf("Скрипт %s: %d команд за %.3f с (%.0f команд/с)%n", fileName, report.commands(),
+                    report.seconds(), report.commandsPerSecond());
+        }
+    }
+
+    /**
+     * Выполняет скрипт и возвращает итог или null, если скрипт не запущен: файл не читается,
+     * скрипт уже выполняется выше по цепочке вызовов или превышена глубина вложенности MAX_SCRIPT_DEPTH
+     */
+    private ScriptReport runScript(String fileName) {
+        Path path;
+        List<ScriptCommand> commands;
         try {
-            InputStream stream = new FileInputStream(fileName);
-            BufferedReader scanner = new BufferedReader(new InputStreamReader(stream));
-            try (scanner){
-                while ((currentLine = scanner.readLine()) != null){
-                    commandHandler(currentLine);
+            path = Path.of(fileName).toRealPath();
+            if (scriptStack.contains(path)) {
+                handleError(new IllegalStateException("скрипт " + fileName + " уже выполняется, рекурсивный вызов пропущен"));
+                return null;
+            }
+            if (scriptStack.size() >= MAX_SCRIPT_DEPTH) {
+                handleError(new IllegalStateException("превышена глубина вложенности скриптов (" + MAX_SCRIPT_DEPTH + ")"));
+                return null;
+            }
+            commands = ScriptParser.parse(path);
+        } catch (IOException e) {
+            handleError(e);
+            return null;
+        }
+
+        long start = System.nanoTime();
+        long commandsBefore = scriptCommands;
+        long errorsBefore = errors.get();
+        Scanner previousIn = in;
+        PrintStream previousPrompts = prompts;
+        String previousPosition = scriptPosition;
+        scriptStack.push(path);
+        scriptDepth++;
+        try {
+            for (ScriptCommand command : commands) {
+                if (exitRequested) {
+                    break;
                 }
+                in = new Scanner(String.join(System.lineSeparator(), command.input()));
+                prompts = NO_PROMPTS;
+                scriptPosition = fileName + ":" + command.line();
+                scriptCommands++;
+                commandHandler(command.tokens());
             }
-            catch (IOException e){
-                handleError(e);
+        } finally {
+            in = previousIn;
+            prompts = previousPrompts;
+            scriptPosition = previousPosition;
+            scriptStack.pop();
+            scriptDepth--;
+            if (scriptDepth == 0) {
+                flushPendingMutations();
+                awaitWrites();
             }
         }
-        catch (FileNotFoundException e){
-            handleError(e);
+
+        return new ScriptReport(fileName, scriptCommands - commandsBefore, errors.get() - errorsBefore,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * @param tokens Команда и имена файлов скриптов
+     * Выполняет скрипты параллельно на SCRIPT_WORKERS потоках над общей коллекцией. Каждый скрипт
+     * выполняется отдельным сеансом того же пользователя; вывод скриптов и сводка по времени
+     * печатаются после завершения всех скриптов.
+     */
+    private void executeScripts(String[] tokens) {
+        List<String> fileNames = Arrays.asList(tokens).subList(1, tokens.length);
+        if (fileNames.isEmpty()) {
+            out.println("Укажите хотя бы один файл");
+            return;
         }
+        long start = System.nanoTime();
+        List<ScriptScheduler.Outcome> outcomes = new ScriptScheduler(SCRIPT_WORKERS)
+                .run(fileNames, (fileName, scriptOut) -> fork(scriptOut).runScript(fileName));
+        long wallNanos = System.nanoTime() - start;
+
+        for (ScriptScheduler.Outcome outcome : outcomes) {
+            out.println("--- " + outcome.fileName());
+            out.print(outcome.output());
+        }
+        ScriptScheduler.printReport(outcomes, wallNanos, out);
+    }
+
+    /**
+     * Сеанс того же пользователя над теми же репозиторием, коллекцией и конвейером, пишущий в данный поток.
+     * Цепочка выполняющихся скриптов наследуется, чтобы циклы обнаруживались и через execute_scripts.
+     */
+    private CommandInterpreter fork(PrintStream forkOut) {
+        CommandInterpreter session = new CommandInterpreter(repository, vehicles, pipeline,
+                new Scanner(InputStream.nullInputStream()), forkOut);
+        session.user = user;
+        session.scriptStack.addAll(scriptStack);
+        return session;
     }
 
     /**
-     * Завершает работу программы
+     * Завершает сеанс: run() вернёт управление после текущей команды
      */
     private void exit() {
-        System.exit(0);
+        exitRequested = true;
     }
 
 
     public void addIfMax() {
-        Vehicle vehicle = Vehicle.fromUser();
-        if (vehicles.isEmpty() || vehicles.last().compareTo(vehicle) < 0) {
-            repository.addVehicle(vehicle);
-            vehicles.add(vehicle);
-            System.out.println("Элемент добавлен в коллекцию.");
+        Vehicle vehicle = Vehicle.fromUser(in, prompts);
+        vehicle.setUserLogin(user.getLogin());
+        Vehicle last = vehicles.last();
+        if (last == null || last.compareTo(vehicle) < 0) {
+            write(vehicle.getId(), () -> {
+                repository.addVehicle(vehicle);
+                vehicles.add(vehicle);
+                out.println("Элемент добавлен в коллекцию.");
+            });
         } else {
-            System.out.println("Элемент не добавлен в коллекцию.");
+            out.println("Элемент не добавлен в коллекцию.");
         }
     }
 
 
     public void addIfMin() {
-        Vehicle vehicle = Vehicle.fromUser();
+        Vehicle vehicle = Vehicle.fromUser(in, prompts);
+        vehicle.setUserLogin(user.getLogin());
 
-        if (vehicles.isEmpty() || vehicles.first().compareTo(vehicle) > 0) {
-            repository.addVehicle(vehicle);
-            vehicles.add(vehicle);
-            System.out.println("Элемент добавлен в коллекцию.");
+        Vehicle first = vehicles.first();
+        if (first == null || first.compareTo(vehicle) > 0) {
+            write(vehicle.getId(), () -> {
+                repository.addVehicle(vehicle);
+                vehicles.add(vehicle);
+                out.println("Элемент добавлен в коллекцию.");
+            });
         } else {
-            System.out.println("Элемент не добавлен в коллекцию.");
+            out.println("Элемент не добавлен в коллекцию.");
         }
     }
 
     public void removeLower() {
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("Введите мощность: ");
-        long power = scanner.nextLong();
-
-        repository.removeLowerEnginePower(power, user);
-        vehicles.removeIf(v -> v.getEnginePower() < power && v.getUserLogin().equals(user.getLogin()));
+        prompts.println("Введите мощность: ");
+        long power = Long.parseLong(in.nextLine().trim());
+
+        User owner = user;
+        write(0, () -> {
+            repository.removeLowerEnginePower(power, owner);
+            vehicles.removeAll(vehicles.getLowerEnginePower(power, owner.getLogin()).stream()
+                    .mapToLong(Vehicle::getId)
+                    .toArray());
+        });
     }
 
     /**
-     * Группирует элементы коллекции по значению поля enginePower, выводит количество элементов в каждой группе
+     * @param tokens Команда и, необязательно, границы диапазона мощности
+     * Выводит количество элементов для каждого значения поля enginePower из поддерживаемого коллекцией агрегата
      */
-    private void groupCountingByEnginePower() {
-        vehicles.stream()
-                .collect(Collectors.groupingBy(Vehicle::getEnginePower, Collectors.counting()))
-                .forEach((power, count) -> System.out.println("Engine power: " + power + ", count: " + count));
+    private void groupCountingByEnginePower(String[] tokens) {
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        if (tokens.length == 3) {
+            from = Long.parseLong(tokens[1]);
+            to = Long.parseLong(tokens[2]);
+        }
+        vehicles.forEachEnginePowerGroup(from, to, (power, count) ->
+                out.println("Engine power: " + power + ", count: " + count));
+        if (tokens.length == 3) {
+            out.println("Total: " + vehicles.countEnginePowerInRange(from, to));
+        }
     }
 
     /**
@@ -260,59 +723,149 @@ public class CommandInterpreter {
      */
     private void filterByNumberOfWheels(String numberOfWheelsString) {
         int numberOfWheels = Integer.parseInt(numberOfWheelsString);
-        vehicles.stream()
-                .filter(v -> v.getNumberOfWheels() == numberOfWheels)
-                .forEach(System.out::println);
+        vehicles.getByNumberOfWheels(numberOfWheels).forEach(output::println);
+        output.flush();
     }
 
     /**
-     * Выводит значения поля numberOfWheels всех элементов в порядке возрастания
+     * Выводит значения поля numberOfWheels всех элементов в порядке возрастания.
+     * Значения берутся из гистограммы коллекции (сортировка подсчётом), вывод идёт через общий буфер.
      */
     private void printFieldAscendingNumberOfWheels() {
-        vehicles.stream()
-                .map(Vehicle::getNumberOfWheels)
-                .sorted()
-                .forEach(System.out::println);
+        vehicles.forEachNumberOfWheels((wheels, count) -> {
+            String line = wheels + System.lineSeparator();
+            for (long i = 0; i < count; i++) {
+                output.append(line);
+            }
+        });
+        output.flush();
+    }
+
+    /**
+     * @param fileName Файл в формате data.csv
+     * Добавляет элементы из файла от имени текущего пользователя. Id из файла не используются:
+     * элементы получают новые id из последовательности таблицы и записываются в базу одной командой COPY.
+     */
+    private void importCsv(String fileName) throws IOException {
+        Path path = Path.of(fileName);
+        if (!Files.isReadable(path)) {
+            throw new NoSuchFileException(fileName);
+        }
+        String login = user.getLogin();
+        write(0, () -> {
+            // строки уходят в COPY по мере разбора; при ошибке в файле не вставляется ничего
+            List<Vehicle> imported = new ArrayList<>();
+            VehicleBulkLoader.Result result;
+            try (VehicleCsvReader reader = new VehicleCsvReader(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+                 VehicleBulkLoader loader = repository.openBulkLoader()) {
+                reader.read(vehicle -> {
+                    vehicle.setUserLogin(login);
+                    loader.add(vehicle);
+                    imported.add(vehicle);
+                });
+                result = loader.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            vehicles.addAll(imported);
+            out.printf("Добавлено %d элементов за %.3f с (%.0f строк/с)%n", result.rows(), result.seconds(),
+                    result.rowsPerSecond());
+        });
+    }
+
+    /**
+     * @param fileName Файл для записи
+     * Сохраняет всю коллекцию в формате data.csv: первая строка - дата инициализации коллекции
+     */
+    private void exportCsv(String fileName) throws IOException {
+        long start = System.nanoTime();
+        long rows = 0;
+        try (VehicleCsvWriter writer = new VehicleCsvWriter(Files.newBufferedWriter(Path.of(fileName), StandardCharsets.UTF_8))) {
+            writer.writeHeader(vehicles.getInitDate());
+            for (Vehicle vehicle : vehicles) {
+                writer.write(vehicle);
+                rows++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Сохранено %d элементов за %.3f с (%.0f строк/с)%n", rows, seconds,
+                seconds > 0 ? rows / seconds : 0);
     }
+
+    /**
+     * Останавливает синхронизацию, дожидается записей в конвейере и закрывает репозиторий с пулом соединений.
+     * Вызывается консольным сеансом, который единолично владеет конвейером и репозиторием
+     */
+    public void close() {
+        if (sync != null) {
+            sync.close();
+        }
+        pipeline.shutdown();
+        repository.close();
+    }
+
+    /**
+     * Выводит статистику пула соединений: занятые, свободные, ожидающие, время получения соединения
+     */
+    private void poolStats() {
+        out.println("Connection pool: " + repository.getPoolStats());
+    }
+
+    /**
+     * Выводит задержки команд, методов Repository и получения соединения, а также счётчики строк.
+     * Записи в базу выполняются конвейером, поэтому команды add, update и другие измеряются
+     * до передачи записи в конвейер, а сама запись - в методах Repository.
+     */
+    private void stats() {
+        Metrics.print(out);
+    }
+
     public void handleError(Exception e){
-        System.out.println("Произошла ошибка: " + e.getMessage());
-        System.out.println("Вы можете повторите ввод команды, или завершить выполнение программы командой exit");
+        handleError(e, scriptPosition);
+    }
+
+    /**
+     * @param position Файл и строка скрипта, где возникла ошибка, или null
+     */
+    private void handleError(Exception e, String position) {
+        errors.incrementAndGet();
+        out.println("Произошла ошибка" + (position == null ? "" : " (" + position + ")") + ": " + e.getMessage());
+        out.println("Вы можете повторите ввод команды, или завершить выполнение программы командой exit");
     }
 
     public void registration(String[] tokens) {
         if (tokens.length != 3) {
-            System.out.println("Неверное кол-во аргументов");
+            out.println("Неверное кол-во аргументов");
         }
         else {
             String login = tokens[1];
-            String password = tokens[2];
-            if (repository.getUsers().stream().anyMatch(t->t.getLogin().equals(login))) {
-                System.out.println("Данные логин занят");
+            String password = SecurityUtil.hashPassword(tokens[2]);
+            if (repository.addUser(new User(login, password))) {
+                out.println("Регистрация успешно выполнена");
             }
             else {
-                password = SecurityUtil.hash224(password);
-                User newUser = new User(login, password);
-                repository.addUser(newUser);
-                System.out.println("Регистрация успешно выполнена");
+                out.println("Данные логин занят");
             }
         }
     }
 
     public void authorization(String[] tokens) {
         if (tokens.length != 3) {
-            System.out.println("Неверное кол-во аргументов");
+            out.println("Неверное кол-во аргументов");
         }
         else {
             String login = tokens[1];
-            String password = SecurityUtil.hash224(tokens[2]);
-            Optional<User> optionalUser = repository.getUsers().stream().
-                    filter(t->t.getLogin().equals(login) && t.getPassword().equals(password)).findFirst();
-            if (optionalUser.isPresent()) {
-                user = optionalUser.get();
-                System.out.println("Авторизация успешно выполнена");
+            String password = tokens[2];
+            User found = repository.getUser(login);
+            if (found != null && SecurityUtil.verifyPassword(password, found.getPassword())) {
+                if (SecurityUtil.needsRehash(found.getPassword())) {
+                    repository.updatePassword(found, SecurityUtil.hashPassword(password));
+                }
+                user = found;
+                out.println("Авторизация успешно выполнена");
             }
             else {
-                System.out.println("Неверный логин или пароль");
+                out.println("Неверный логин или пароль");
             }
         }
     }
@@ -0,0 +1,134 @@
+package src;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Конвейер записи в базу данных: команда разбирается и вводится в потоке консоли (или сеанса),
+ * а обращение к базе ставится в ограниченную очередь и выполняется на отдельных потоках.
+ * Результат возвращается через CompletableFuture.
+ * <p>
+ * Порядок: в режиме GLOBAL все записи выполняются одним потоком строго в порядке поступления,
+ * в режиме PER_KEY записи распределяются по нескольким потокам по ключу (id элемента),
+ * и порядок сохраняется только для записей с одинаковым ключом.
+ * Переполнение очереди: BLOCK - поток ввода ждёт освобождения места, REJECT - команда отклоняется.
+ */
+public class CommandPipeline {
+    public enum Ordering { GLOBAL, PER_KEY }
+
+    public enum Backpressure { BLOCK, REJECT }
+
+    private final ThreadPoolExecutor[] lanes;
+
+    private CommandPipeline(ThreadPoolExecutor[] lanes) {
+        this.lanes = lanes;
+    }
+
+    /**
+     * Конвейер, настроенный системными свойствами pipeline.*: по умолчанию асинхронный, с одной очередью
+     * на 1024 команды и блокировкой ввода при её переполнении
+     */
+    public static CommandPipeline fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("pipeline.async", "true"))) {
+            return direct();
+        }
+        Ordering ordering = Ordering.valueOf(System.getProperty("pipeline.ordering", "GLOBAL").toUpperCase());
+        Backpressure backpressure = Backpressure.valueOf(System.getProperty("pipeline.backpressure", "BLOCK").toUpperCase());
+        int lanes = ordering == Ordering.GLOBAL ? 1 : Integer.getInteger("pipeline.lanes", 4);
+        return async(lanes, Integer.getInteger("pipeline.queueCapacity", 1024), backpressure);
+    }
+
+    /**
+     * Конвейер без очереди: работа выполняется сразу в вызывающем потоке
+     */
+    public static CommandPipeline direct() {
+        return new CommandPipeline(new ThreadPoolExecutor[0]);
+    }
+
+    /**
+     * @param lanes Количество потоков записи
+     * @param queueCapacity Ёмкость очереди каждого потока
+     * @param backpressure Поведение при переполнении очереди
+     */
+    public static CommandPipeline async(int lanes, int queueCapacity, Backpressure backpressure) {
+        RejectedExecutionHandler handler = backpressure == Backpressure.BLOCK
+                ? CommandPipeline::waitForSpace
+                : new ThreadPoolExecutor.AbortPolicy();
+        ThreadPoolExecutor[] executors = new ThreadPoolExecutor[lanes];
+        for (int i = 0; i < lanes; i++) {
+            String name = "db-writer-" + i;
+            executors[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }, handler);
+        }
+        return new CommandPipeline(executors);
+    }
+
+    private static void waitForSpace(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Command pipeline is shut down");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for the command queue");
+        }
+    }
+
+    /**
+     * @param key Ключ упорядочивания (например, id элемента)
+     * @param work Работа с базой данных
+     * Ставит работу в очередь потока, выбранного по ключу
+     */
+    public <T> CompletableFuture<T> submit(long key, Supplier<T> work) {
+        if (lanes.length == 0) {
+            try {
+                return CompletableFuture.completedFuture(work.get());
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        try {
+            return CompletableFuture.supplyAsync(work, lanes[Math.floorMod(key, lanes.length)]);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Очередь команд переполнена, команда отклонена"));
+        }
+    }
+
+    public CompletableFuture<Void> execute(long key, Runnable work) {
+        return submit(key, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public boolean isAsync() {
+        return lanes.length > 0;
+    }
+
+    /**
+     * Завершает приём команд и ждёт выполнения уже поставленных в очередь
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            try {
+                lane.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
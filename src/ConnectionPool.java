@@ -0,0 +1,544 @@
+package src;
+
+import src.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ограниченный пул соединений с базой данных.
+ * Выдаёт обёртки над соединениями, у которых close() возвращает соединение в пул, а не закрывает его.
+ * Каждая выдача получает свою обёртку: после close() она и все созданные через неё запросы перестают
+ * работать, даже если то же соединение уже выдано кому-то другому.
+ * Перед выдачей соединение проверяется, простаивающие и слишком старые соединения закрываются.
+ * Каждое соединение хранит LRU-кэш подготовленных запросов по тексту SQL, который переживает возврат в пул.
+ */
+public class ConnectionPool {
+    /**
+     * Соединение, использованное недавно, выдаётся без проверки, чтобы не тратить лишний запрос к серверу
+     */
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+
+    private final String url;
+    private final Properties properties;
+    private final int maxSize;
+    private final int validationTimeoutSeconds;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long acquireTimeoutMillis;
+    private final int statementCacheSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+    private int total;
+    private int waiters;
+    private boolean closed;
+
+    private long acquireCount;
+    private long acquireNanosTotal;
+    private long acquireNanosMax;
+
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, int validationTimeoutSeconds,
+                          long idleTimeoutMillis, long maxLifetimeMillis, long acquireTimeoutMillis,
+                          int statementCacheSize, int prepareThreshold) {
+        try {
+            Class.forName("org.postgresql.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("PostgreSQL JDBC Driver is not found");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be greater than 0");
+        }
+        this.url = url;
+        this.properties = new Properties();
+        this.properties.setProperty("user", user);
+        this.properties.setProperty("password", password);
+        this.properties.setProperty("prepareThreshold", String.valueOf(prepareThreshold));
+        this.maxSize = maxSize;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+
+        long evictionPeriod = Math.max(1000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Берёт соединение из пула, при необходимости открывая новое.
+     * Если все соединения заняты, ждёт не дольше acquireTimeout.
+     */
+    public Connection getConnection() {
+        long start = System.nanoTime();
+        PooledConnection pooled = borrow(start);
+        recordAcquire(System.nanoTime() - start);
+        return new Lease(pooled).proxy;
+    }
+
+    private PooledConnection borrow(long start) {
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (candidate == null && !create) {
+                    if (closed) {
+                        throw new RuntimeException("Connection pool is closed");
+                    }
+                    candidate = idle.pollFirst();
+                    if (candidate == null) {
+                        if (total < maxSize) {
+                            total++;
+                            create = true;
+                        }
+                        else {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                throw new RuntimeException("Timed out waiting for a database connection");
+                            }
+                            waiters++;
+                            try {
+                                available.awaitNanos(remaining);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new RuntimeException("Interrupted while waiting for a database connection");
+                            } finally {
+                                waiters--;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    return open();
+                } catch (RuntimeException e) {
+                    discarded();
+                    throw e;
+                }
+            }
+            if (isUsable(candidate)) {
+                return candidate;
+            }
+            destroy(candidate);
+        }
+    }
+
+    private PooledConnection open() {
+        try {
+            return new PooledConnection(DriverManager.getConnection(url, properties));
+        } catch (SQLException e) {
+            throw new RuntimeException("Connection Failed");
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (now - pooled.createdAt >= maxLifetimeMillis || now - pooled.lastUsed >= idleTimeoutMillis) {
+            return false;
+        }
+        if (now - pooled.lastUsed < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        pooled.closeEvictedStatements();
+        pooled.lastUsed = System.currentTimeMillis();
+        boolean reusable;
+        try {
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            reusable = !pooled.connection.isClosed()
+                    && pooled.lastUsed - pooled.createdAt < maxLifetimeMillis;
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (!reusable) {
+            destroy(pooled);
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                total--;
+            }
+            else {
+                idle.addFirst(pooled);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(pooled);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        closeQuietly(pooled);
+        discarded();
+    }
+
+    private void discarded() {
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Закрывает соединения, простаивающие дольше idleTimeout или живущие дольше maxLifetime
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        Deque<PooledConnection> expired = new ArrayDeque<>();
+        lock.lock();
+        try {
+            Iterator<PooledConnection> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                PooledConnection pooled = iterator.next();
+                if (now - pooled.lastUsed >= idleTimeoutMillis || now - pooled.createdAt >= maxLifetimeMillis) {
+                    iterator.remove();
+                    expired.add(pooled);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pooled : expired) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Закрывает пул и все свободные соединения. Занятые соединения закрываются при возврате.
+     */
+    public void close() {
+        evictor.shutdownNow();
+        Deque<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayDeque<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pooled : toClose) {
+            closeQuietly(pooled);
+        }
+    }
+
+    private void recordAcquire(long nanos) {
+        Metrics.POOL_ACQUIRE.record(nanos);
+        lock.lock();
+        try {
+            acquireCount++;
+            acquireNanosTotal += nanos;
+            acquireNanosMax = Math.max(acquireNanosMax, nanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Возвращает снимок текущего состояния пула
+     */
+    public Stats getStats() {
+        lock.lock();
+        try {
+            int idleCount = idle.size();
+            double averageMillis = acquireCount == 0 ? 0 : acquireNanosTotal / 1e6 / acquireCount;
+            return new Stats(total - idleCount, idleCount, waiters, maxSize, acquireCount,
+                    averageMillis, acquireNanosMax / 1e6, statementHits.get(), statementMisses.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Статистика пула: занятые, свободные и ожидающие соединения, время получения соединения,
+     * попадания и промахи кэша подготовленных запросов
+     */
+    public record Stats(int active, int idle, int waiters, int maxSize, long acquired,
+                        double averageAcquireMillis, double maxAcquireMillis,
+                        long statementHits, long statementMisses) {
+        @Override
+        public String toString() {
+            return String.format("active=%d, idle=%d, waiters=%d, max=%d, acquired=%d, acquire avg=%.3f ms, max=%.3f ms, " +
+                            "statement cache hits=%d, misses=%d",
+                    active, idle, waiters, maxSize, acquired, averageAcquireMillis, maxAcquireMillis,
+                    statementHits, statementMisses);
+        }
+    }
+
+    private class PooledConnection {
+        private final Connection connection;
+        private final long createdAt;
+        private volatile long lastUsed;
+        /**
+         * Запросы, вытесненные из кэша во время выдачи: текущий владелец может ещё ими пользоваться,
+         * поэтому они закрываются при возврате соединения в пул
+         */
+        private final List<PreparedStatement> evicted = new ArrayList<>();
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                evicted.add(eldest.getValue());
+                return true;
+            }
+        };
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+        }
+
+        private void closeEvictedStatements() {
+            for (PreparedStatement statement : evicted) {
+                closeStatementQuietly(statement);
+            }
+            evicted.clear();
+        }
+
+        /**
+         * Возвращает подготовленный запрос из кэша соединения или готовит новый
+         */
+        private PreparedStatement prepareCached(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement != null && !statement.isClosed()) {
+                statementHits.incrementAndGet();
+            }
+            else {
+                statementMisses.incrementAndGet();
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+    }
+
+    /**
+     * Одна выдача соединения из пула. После close() обёртка и выданные через неё запросы не работают,
+     * поэтому сохранённая после возврата ссылка не может повлиять на следующего владельца того же соединения.
+     */
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final Connection proxy;
+        private volatile boolean open = true;
+        /**
+         * Запросы, созданные за эту выдачу и ещё не закрытые владельцем
+         */
+        private final List<LeasedStatement> statements = new ArrayList<>();
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (open) {
+                        open = false;
+                        for (LeasedStatement statement : statements) {
+                            statement.release();
+                        }
+                        statements.clear();
+                        release(pooled);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return !open || pooled.connection.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                default -> {
+                    if (!open) {
+                        throw new SQLException("Connection has been returned to the pool");
+                    }
+                    if (statementCacheSize > 0 && method.getName().equals("prepareStatement")
+                            && args.length == 1) {
+                        return new LeasedStatement(pooled.prepareCached((String) args[0]), PreparedStatement.class, true).proxy;
+                    }
+                }
+            }
+            Object result;
+            try {
+                result = method.invoke(pooled.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement statement && method.getReturnType().isInterface()) {
+                return new LeasedStatement(statement, method.getReturnType(), false).proxy;
+            }
+            return result;
+        }
+
+        /**
+         * Обёртка над запросом, созданным за эту выдачу. Перестаёт работать при закрытии её самой
+         * или соединения; getConnection() возвращает обёртку выдачи, а не само соединение.
+         * Закэшированный запрос при этом не закрывается, а сбрасывается для следующего владельца.
+         */
+        private class LeasedStatement implements InvocationHandler {
+            private final Statement statement;
+            private final boolean cached;
+            private final Statement proxy;
+            private boolean closed;
+
+            private LeasedStatement(Statement statement, Class<?> type, boolean cached) {
+                this.statement = statement;
+                this.cached = cached;
+                this.proxy = (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, this);
+                statements.add(this);
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!closed) {
+                            statements.remove(this);
+                            release();
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return closed || statement.isClosed();
+                    }
+                    case "getConnection" -> {
+                        return Lease.this.proxy;
+                    }
+                    case "equals" -> {
+                        return proxy == args[0];
+                    }
+                    case "hashCode" -> {
+                        return System.identityHashCode(proxy);
+                    }
+                    default -> {
+                        if (closed) {
+                            throw new SQLException("Statement has been closed or its connection returned to the pool");
+                        }
+                    }
+                }
+                try {
+                    return method.invoke(statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            private void release() {
+                closed = true;
+                if (cached) {
+                    resetCachedStatement(statement);
+                }
+                else {
+                    closeStatementQuietly(statement);
+                }
+            }
+        }
+    }
+
+    /**
+     * Возвращает закэшированный запрос в исходное состояние: закрывает открытый результат, сбрасывает
+     * параметры, пакет и настройки выполнения. Запрос, который не удалось сбросить, закрывается и будет
+     * подготовлен заново.
+     */
+    private static void resetCachedStatement(Statement statement) {
+        try {
+            if (statement.isClosed()) {
+                return;
+            }
+            ResultSet resultSet = statement.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement instanceof PreparedStatement prepared) {
+                prepared.clearParameters();
+            }
+            statement.clearBatch();
+            statement.setFetchSize(0);
+            statement.setMaxRows(0);
+            statement.setQueryTimeout(0);
+        } catch (SQLException e) {
+            closeStatementQuietly(statement);
+        }
+    }
+
+    private static void closeStatementQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package src;
 
-import java.io.*;
+import src.metrics.MetricsServer;
 
 //user 123
 
@@ -8,29 +8,47 @@ import java.io.*;
  * Основной класс программы
  */
 public class Main {
-    private static String filename;
+    private static final int DEFAULT_PORT = 8189;
+
     /**
-     * @param args Аргументы командной строки
-     *             Основной цикл программы
+     * @param args Аргументы командной строки: без аргументов - работа с консолью,
+     *             --server [port] - сетевой режим для нескольких пользователей
+     *             Основной цикл программы. При заданном свойстве metrics.port метрики
+     *             отдаются по http://127.0.0.1:port/metrics
      */
     public static void main(String[] args) {
-        CommandInterpreter interpreter = new CommandInterpreter();
-        interpreter.load();
-        BufferedReader scanner = new BufferedReader(new InputStreamReader(System.in));
-        try(scanner) {
-            while (true) {
-                System.out.println("Введите команду:");
-                try {
-                    String command = scanner.readLine().trim();
-                    interpreter.commandHandler(command);
-                } catch (Exception e) {
-                    interpreter.handleError(e);
+        MetricsServer metrics = MetricsServer.fromSystemProperties();
+        if (metrics != null) {
+            System.out.println("Метрики: http://127.0.0.1:" + metrics.getPort() + "/metrics");
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            try {
+                new Server(port).start();
+            }
+            finally {
+                if (metrics != null) {
+                    metrics.close();
                 }
             }
+            return;
+        }
+
+        CommandInterpreter interpreter = new CommandInterpreter();
+        try {
+            interpreter.load();
+            interpreter.run();
         }
         catch (Exception e) {
             interpreter.handleError(e);
         }
+        finally {
+            interpreter.close();
+            if (metrics != null) {
+                metrics.close();
+            }
+        }
+        System.exit(0);
     }
 
 }
\ No newline at end of file
@@ -1,177 +1,706 @@
 package src;
 
+import src.metrics.LatencyHistogram;
+import src.metrics.Metrics;
 import src.model.*;
 
 import java.sql.*;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public class Repository {
     static final String DB_URL = "jdbc:postgresql://127.0.0.1:5432/studs";
     static final String USER = "postgres";
     static final String PASS = "1234";
 
-    public Connection createConnection() {
-        try {
-            Class.forName("org.postgresql.Driver");
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException("PostgreSQL JDBC Driver is not found");
+    static final int POOL_SIZE = Integer.getInteger("db.pool.size", 10);
+    static final int POOL_VALIDATION_TIMEOUT_SECONDS = Integer.getInteger("db.pool.validationTimeout", 2);
+    static final long POOL_IDLE_TIMEOUT_MILLIS = Long.getLong("db.pool.idleTimeout", 600_000L);
+    static final long POOL_MAX_LIFETIME_MILLIS = Long.getLong("db.pool.maxLifetime", 1_800_000L);
+    static final long POOL_ACQUIRE_TIMEOUT_MILLIS = Long.getLong("db.pool.acquireTimeout", 30_000L);
+    static final int STATEMENT_CACHE_SIZE = Integer.getInteger("db.statementCache.size", 64);
+    static final int PREPARE_THRESHOLD = Integer.getInteger("db.prepareThreshold", 2);
+    static final int BATCH_SIZE = Integer.getInteger("db.batch.size", 500);
+    static final int FETCH_SIZE = Integer.getInteger("db.fetchSize", 1000);
+
+    private static final String INSERT_VEHICLE = "INSERT INTO vehicle VALUES (default, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    /**
+     * Вставка с заранее выданным id; повторная вставка того же id перезаписывает строку,
+     * поэтому повтор уже записанного изменения безопасен
+     */
+    private static final String UPSERT_VEHICLE = "INSERT INTO vehicle VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (id) DO UPDATE SET name = excluded.name, coord_x = excluded.coord_x, " +
+            "coord_y = excluded.coord_y, creation_date = excluded.creation_date, engine_power = excluded.engine_power, " +
+            "number_wheels = excluded.number_wheels, vehicle_type = excluded.vehicle_type, " +
+            "fuel_type = excluded.fuel_type, user_login = excluded.user_login";
+    private static final String UPDATE_VEHICLE = "UPDATE vehicle set name = ?, coord_x = ?, coord_y = ?, " +
+            "engine_power = ?, number_wheels = ?, vehicle_type = ?, fuel_type = ? WHERE id = ?";
+
+    /**
+     * Канал уведомлений PostgreSQL об изменениях таблицы vehicle
+     */
+    static final String CHANGES_CHANNEL = "vehicle_changed";
+
+    /**
+     * Возвращается readChanges, если записи об удалениях после отметки уже очищены: коллекцию нужно загрузить заново
+     */
+    public static final long CHANGES_EXPIRED = -1;
+
+    /**
+     * Шаг настройки схемы: запрос, возвращающий строку, если объект уже в нужном виде, и команда,
+     * которая его создаёт или исправляет
+     */
+    private record SchemaStep(String exists, String create) {
+        static SchemaStep function(String name, String body) {
+            return new SchemaStep("SELECT 1 FROM pg_proc WHERE proname = '" + name + "' AND prosrc = '" + body.replace("'", "''") + "'",
+                    "CREATE OR REPLACE FUNCTION " + name + "() RETURNS trigger AS $$" + body + "$$ LANGUAGE plpgsql");
         }
 
-        Connection connection = null;
+        static SchemaStep index(String name, String definition) {
+            return new SchemaStep("SELECT 1 WHERE to_regclass('" + name + "') IS NOT NULL",
+                    "CREATE INDEX IF NOT EXISTS " + name + " ON " + definition);
+        }
 
-        try {
-            connection = DriverManager.getConnection(DB_URL, USER, PASS);
+        static SchemaStep trigger(String name, String definition) {
+            return new SchemaStep("SELECT 1 FROM pg_trigger WHERE tgname = '" + name + "'",
+                    "CREATE TRIGGER " + name + " " + definition);
+        }
+    }
 
-        }  catch (SQLException e) {
-            throw new RuntimeException("Connection Failed");
+    /**
+     * Отслеживание изменений: в столбце version строки хранится id транзакции, которая её последней
+     * изменила, удалённые id попадают в vehicle_deleted с id удалившей транзакции. Каждая команда,
+     * изменившая таблицу, посылает одно уведомление в канал CHANGES_CHANNEL. При вставке version
+     * заполняется значением по умолчанию, поэтому массовая вставка (COPY) обходится без построчных
+     * триггеров. Записи об удалениях старше sync.tombstoneRetention очищает pruneDeletions, а
+     * vehicle_deleted_horizon хранит границу, до которой они очищены.
+     * Шаги выполняются по порядку и только если объект отсутствует или отличается.
+     */
+    private static final List<SchemaStep> CHANGE_TRACKING_SCHEMA = List.of(
+            new SchemaStep("SELECT 1 FROM pg_attribute WHERE attrelid = to_regclass('vehicle') AND attname = 'version' AND NOT attisdropped",
+                    "ALTER TABLE vehicle ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0"),
+            new SchemaStep("SELECT 1 FROM pg_attrdef d JOIN pg_attribute a ON a.attrelid = d.adrelid AND a.attnum = d.adnum " +
+                    "WHERE d.adrelid = to_regclass('vehicle') AND a.attname = 'version' " +
+                    "AND pg_get_expr(d.adbin, d.adrelid) = 'txid_current()'",
+                    "ALTER TABLE vehicle ALTER COLUMN version SET DEFAULT txid_current()"),
+            SchemaStep.index("vehicle_version_idx", "vehicle (version)"),
+            new SchemaStep("SELECT 1 WHERE to_regclass('vehicle_deleted') IS NOT NULL",
+                    "CREATE TABLE IF NOT EXISTS vehicle_deleted (id bigint PRIMARY KEY, version bigint NOT NULL)"),
+            new SchemaStep("SELECT 1 FROM pg_attribute WHERE attrelid = to_regclass('vehicle_deleted') AND attname = 'deleted_at' AND NOT attisdropped",
+                    "ALTER TABLE vehicle_deleted ADD COLUMN IF NOT EXISTS deleted_at timestamptz NOT NULL DEFAULT now()"),
+            SchemaStep.index("vehicle_deleted_version_idx", "vehicle_deleted (version)"),
+            new SchemaStep("SELECT 1 WHERE to_regclass('vehicle_deleted_horizon') IS NOT NULL",
+                    "CREATE TABLE IF NOT EXISTS vehicle_deleted_horizon (horizon bigint NOT NULL); " +
+                    "INSERT INTO vehicle_deleted_horizon SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM vehicle_deleted_horizon)"),
+            SchemaStep.function("vehicle_track_update", " BEGIN NEW.version := txid_current(); RETURN NEW; END "),
+            SchemaStep.function("vehicle_track_delete", " BEGIN " +
+                    "INSERT INTO vehicle_deleted VALUES (OLD.id, txid_current()) " +
+                    "ON CONFLICT (id) DO UPDATE SET version = excluded.version, deleted_at = excluded.deleted_at; " +
+                    "RETURN OLD; " +
+                    "END "),
+            SchemaStep.function("vehicle_notify_change", " BEGIN PERFORM pg_notify('" + CHANGES_CHANNEL + "', ''); RETURN NULL; END "),
+            SchemaStep.trigger("vehicle_track_update", "BEFORE UPDATE ON vehicle FOR EACH ROW EXECUTE FUNCTION vehicle_track_update()"),
+            SchemaStep.trigger("vehicle_track_delete", "AFTER DELETE ON vehicle FOR EACH ROW EXECUTE FUNCTION vehicle_track_delete()"),
+            SchemaStep.trigger("vehicle_notify_change", "AFTER INSERT OR UPDATE OR DELETE ON vehicle FOR EACH STATEMENT " +
+                    "EXECUTE FUNCTION vehicle_notify_change()"));
+
+    private final ConnectionPool pool;
+    /**
+     * Имя последовательности столбца vehicle.id, определяется при первой выдаче id
+     */
+    private volatile String idSequence;
+    private final UserCache users = new UserCache();
+    /**
+     * Создан ли уникальный индекс по user_info.login: на нём основаны поиск и регистрация пользователей
+     */
+    private volatile boolean userIndexReady;
+
+    public Repository() {
+        this(new ConnectionPool(DB_URL, USER, PASS, POOL_SIZE, POOL_VALIDATION_TIMEOUT_SECONDS,
+                POOL_IDLE_TIMEOUT_MILLIS, POOL_MAX_LIFETIME_MILLIS, POOL_ACQUIRE_TIMEOUT_MILLIS,
+                STATEMENT_CACHE_SIZE, PREPARE_THRESHOLD));
+    }
+
+    public Repository(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Репозиторий по системным свойствам: при db.writeBehind=true - с отложенной записью через журнал
+     */
+    public static Repository fromSystemProperties() {
+        if (Boolean.getBoolean("db.writeBehind")) {
+            return new WriteBehindRepository();
         }
+        return new Repository();
+    }
 
-        return connection;
+    /**
+     * Берёт соединение из пула. Закрытие соединения возвращает его в пул.
+     */
+    public Connection createConnection() {
+        return pool.getConnection();
     }
 
-    public List<Vehicle> getVehicles() {
-        Connection connection = createConnection();
-        Statement statement = null;
-        List<Vehicle> vehicles = new ArrayList<>();
+    public ConnectionPool.Stats getPoolStats() {
+        return pool.getStats();
+    }
 
-        try {
-            statement = connection.createStatement();
-            ResultSet resultSet = statement.executeQuery("SELECT * FROM vehicle");
-            while (resultSet.next()) {
-                long id = resultSet.getLong("id");
-                String name = resultSet.getString("name");
-                int x = resultSet.getInt("coord_x");
-                int y = resultSet.getInt("coord_y");
-                LocalDateTime date = resultSet.getTimestamp("creation_date").toLocalDateTime();
-                long enginePower = resultSet.getLong("engine_power");
-                int numberWheels = resultSet.getInt("number_wheels");
-                int vehicleType = resultSet.getInt("vehicle_type");
-                VehicleType vehicleTypeEnum = VehicleType.values()[vehicleType];
-                int fuelType = resultSet.getInt("fuel_type");
-                FuelType fuelTypeEnum = FuelType.values()[fuelType];
-                String userLogin = resultSet.getString("user_login");
+    public void close() {
+        pool.close();
+    }
 
-                Vehicle vehicle = new Vehicle(id, name, new Coordinates(x, y), date, enginePower, numberWheels, vehicleTypeEnum, fuelTypeEnum);
-                vehicle.setUserLogin(userLogin);
-                vehicles.add(vehicle);
-            }
+    /**
+     * Начинает замер длительности метода для Metrics. Замер начинается до try с соединением и
+     * закрывается в его finally, поэтому в длительность входят получение соединения и его возврат в пул
+     */
+    private static LatencyHistogram.Sample timed(String method) {
+        return Metrics.repository(method).start();
+    }
+
+    public List<Vehicle> getVehicles() {
+        List<Vehicle> vehicles = new ArrayList<>();
+        streamVehicles(vehicles::add);
+        return vehicles;
+    }
 
-            connection.close();
+    /**
+     * @param consumer Получатель элементов
+     * Читает таблицу vehicle серверным курсором по FETCH_SIZE строк и передаёт элементы получателю по одному,
+     * не накапливая весь результат в памяти. Возвращает количество прочитанных строк.
+     */
+    public long streamVehicles(Consumer<Vehicle> consumer) {
+        long rows;
+        LatencyHistogram.Sample timing = timed("streamVehicles");
+        try (Connection connection = createConnection();
+             Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // курсор на стороне сервера используется драйвером только вне режима autocommit
+            connection.setAutoCommit(false);
+            statement.setFetchSize(FETCH_SIZE);
+            rows = readVehicles(statement.executeQuery("SELECT * FROM vehicle"), consumer);
+            connection.commit();
+            Metrics.ROWS_READ.add(rows);
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            timing.close();
         }
 
-        return vehicles;
+        return rows;
     }
 
-    public void addVehicle(Vehicle vehicle) {
-        Connection connection = createConnection();
+    /**
+     * Читает элементы из результата запроса по таблице vehicle и передаёт их получателю.
+     * Возвращает количество строк.
+     */
+    private static long readVehicles(ResultSet resultSet, Consumer<Vehicle> consumer) throws SQLException {
+        long rows = 0;
+        int idColumn = resultSet.findColumn("id");
+        int nameColumn = resultSet.findColumn("name");
+        int xColumn = resultSet.findColumn("coord_x");
+        int yColumn = resultSet.findColumn("coord_y");
+        int dateColumn = resultSet.findColumn("creation_date");
+        int powerColumn = resultSet.findColumn("engine_power");
+        int wheelsColumn = resultSet.findColumn("number_wheels");
+        int typeColumn = resultSet.findColumn("vehicle_type");
+        int fuelColumn = resultSet.findColumn("fuel_type");
+        int loginColumn = resultSet.findColumn("user_login");
+        VehicleType[] vehicleTypes = VehicleType.values();
+        FuelType[] fuelTypes = FuelType.values();
+
+        while (resultSet.next()) {
+            long id = resultSet.getLong(idColumn);
+            String name = resultSet.getString(nameColumn);
+            int x = resultSet.getInt(xColumn);
+            int y = resultSet.getInt(yColumn);
+            LocalDateTime date = resultSet.getTimestamp(dateColumn).toLocalDateTime();
+            long enginePower = resultSet.getLong(powerColumn);
+            int numberWheels = resultSet.getInt(wheelsColumn);
+            VehicleType vehicleTypeEnum = vehicleTypes[resultSet.getInt(typeColumn)];
+            FuelType fuelTypeEnum = fuelTypes[resultSet.getInt(fuelColumn)];
+            String userLogin = resultSet.getString(loginColumn);
+
+            Vehicle vehicle = new Vehicle(id, name, new Coordinates(x, y), date, enginePower, numberWheels, vehicleTypeEnum, fuelTypeEnum);
+            vehicle.setUserLogin(userLogin);
+            consumer.accept(vehicle);
+            rows++;
+        }
+        return rows;
+    }
 
-        PreparedStatement statement = null;
-        try {
-            statement = connection.prepareStatement("INSERT INTO vehicle VALUES (default, ?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING ID");
-            statement.setString(1, vehicle.getName());
-            statement.setInt(2, vehicle.getCoordinates().getX());
-            statement.setInt(3, vehicle.getCoordinates().getY());
-            statement.setTimestamp(4, Timestamp.valueOf(vehicle.getCreationDate()));
-            statement.setLong(5, vehicle.getEnginePower());
-            statement.setInt(6, vehicle.getNumberOfWheels());
-            statement.setInt(7, vehicle.getType().ordinal());
-            statement.setInt(8, vehicle.getFuelType().ordinal());
-            statement.setString(9, vehicle.getUserLogin());
+    public void addVehicle(Vehicle vehicle) {
+        LatencyHistogram.Sample timing = timed("addVehicle");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement(INSERT_VEHICLE + " RETURNING ID")) {
+            setVehicleParameters(statement, vehicle, 1);
 
             ResultSet resultSet = statement.executeQuery();
             resultSet.next();
             long id = resultSet.getLong(1);
             vehicle.setId(id);
-            connection.close();
+            Metrics.ROWS_WRITTEN.increment();
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
+
+    /**
+     * @param vehicles Элементы для вставки
+     * Вставляет элементы пачками по BATCH_SIZE в одной транзакции и проставляет им сгенерированные id
+     */
+    public void addVehicles(List<Vehicle> vehicles) {
+        if (vehicles.isEmpty()) {
+            return;
+        }
+        LatencyHistogram.Sample timing = timed("addVehicles");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement(INSERT_VEHICLE, new String[]{"id"})) {
+            connection.setAutoCommit(false);
+            for (int from = 0; from < vehicles.size(); from += BATCH_SIZE) {
+                List<Vehicle> chunk = vehicles.subList(from, Math.min(from + BATCH_SIZE, vehicles.size()));
+                for (Vehicle vehicle : chunk) {
+                    setVehicleParameters(statement, vehicle, 1);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                ResultSet keys = statement.getGeneratedKeys();
+                for (Vehicle vehicle : chunk) {
+                    keys.next();
+                    vehicle.setId(keys.getLong(1));
+                }
+            }
+            connection.commit();
+            Metrics.ROWS_WRITTEN.add(vehicles.size());
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            timing.close();
         }
     }
 
+    /**
+     * Заполняет поля элемента (кроме id) в параметры запроса, начиная с параметра first
+     */
+    private static void setVehicleParameters(PreparedStatement statement, Vehicle vehicle, int first) throws SQLException {
+        statement.setString(first, vehicle.getName());
+        statement.setInt(first + 1, vehicle.getCoordinates().getX());
+        statement.setInt(first + 2, vehicle.getCoordinates().getY());
+        statement.setTimestamp(first + 3, Timestamp.valueOf(vehicle.getCreationDate()));
+        statement.setLong(first + 4, vehicle.getEnginePower());
+        statement.setInt(first + 5, vehicle.getNumberOfWheels());
+        statement.setInt(first + 6, vehicle.getType().ordinal());
+        statement.setInt(first + 7, vehicle.getFuelType().ordinal());
+        statement.setString(first + 8, vehicle.getUserLogin());
+    }
+
     public void updateVehicle(Vehicle vehicle) {
-        Connection connection = createConnection();
+        LatencyHistogram.Sample timing = timed("updateVehicle");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement(UPDATE_VEHICLE)) {
+            setUpdateParameters(statement, vehicle);
 
-        PreparedStatement statement = null;
-        try {
-            statement = connection.prepareStatement("UPDATE vehicle set name = ?, coord_x = ?, coord_y = ?, " +
-                    "engine_power = ?, number_wheels = ?, vehicle_type = ?, fuel_type = ? WHERE id = ?");
-            statement.setString(1, vehicle.getName());
-            statement.setInt(2, vehicle.getCoordinates().getX());
-            statement.setInt(3, vehicle.getCoordinates().getY());
-            statement.setLong(4, vehicle.getEnginePower());
-            statement.setInt(5, vehicle.getNumberOfWheels());
-            statement.setInt(6, vehicle.getType().ordinal());
-            statement.setInt(7, vehicle.getFuelType().ordinal());
-            statement.setLong(8, vehicle.getId());
+            Metrics.ROWS_WRITTEN.add(statement.executeUpdate());
 
-            statement.executeUpdate();
-            connection.close();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
+
+    private static void setUpdateParameters(PreparedStatement statement, Vehicle vehicle) throws SQLException {
+        statement.setString(1, vehicle.getName());
+        statement.setInt(2, vehicle.getCoordinates().getX());
+        statement.setInt(3, vehicle.getCoordinates().getY());
+        statement.setLong(4, vehicle.getEnginePower());
+        statement.setInt(5, vehicle.getNumberOfWheels());
+        statement.setInt(6, vehicle.getType().ordinal());
+        statement.setInt(7, vehicle.getFuelType().ordinal());
+        statement.setLong(8, vehicle.getId());
+    }
+
+    /**
+     * @param mutations Изменения в порядке их выполнения
+     * Записывает изменения одной транзакцией. Подряд идущие изменения одного вида отправляются
+     * одним пакетом (вставки - с возвратом id, удаления - одним DELETE ... WHERE id = ANY(?)),
+     * поэтому порядок изменений между пакетами сохраняется. Добавленным элементам проставляются id.
+     */
+    public void applyMutations(List<VehicleMutation> mutations) {
+        writeMutations(mutations, false);
+    }
+
+    /**
+     * @param mutations Изменения в порядке их выполнения
+     * @param idsAssigned true, если у добавляемых элементов уже есть id (выданные reserveIds):
+     *                    тогда они вставляются с этими id, и повторная запись тех же изменений безопасна
+     */
+    protected void writeMutations(List<VehicleMutation> mutations, boolean idsAssigned) {
+        if (mutations.isEmpty()) {
+            return;
+        }
+        LatencyHistogram.Sample timing = timed("writeMutations");
+        try (Connection connection = createConnection();
+             PreparedStatement insert = idsAssigned
+                     ? connection.prepareStatement(UPSERT_VEHICLE)
+                     : connection.prepareStatement(INSERT_VEHICLE, new String[]{"id"});
+             PreparedStatement update = connection.prepareStatement(UPDATE_VEHICLE);
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM vehicle WHERE id = ANY(?)")) {
+            connection.setAutoCommit(false);
+            int from = 0;
+            while (from < mutations.size()) {
+                VehicleMutation.Kind kind = mutations.get(from).kind();
+                int to = from + 1;
+                while (to < mutations.size() && to - from < BATCH_SIZE && mutations.get(to).kind() == kind) {
+                    to++;
+                }
+                List<VehicleMutation> run = mutations.subList(from, to);
+                switch (kind) {
+                    case INSERT -> {
+                        for (VehicleMutation mutation : run) {
+                            if (idsAssigned) {
+                                insert.setLong(1, mutation.vehicle().getId());
+                            }
+                            setVehicleParameters(insert, mutation.vehicle(), idsAssigned ? 2 : 1);
+                            insert.addBatch();
+                        }
+                        insert.executeBatch();
+                        if (!idsAssigned) {
+                            ResultSet keys = insert.getGeneratedKeys();
+                            for (VehicleMutation mutation : run) {
+                                keys.next();
+                                mutation.vehicle().setId(keys.getLong(1));
+                            }
+                        }
+                    }
+                    case UPDATE -> {
+                        for (VehicleMutation mutation : run) {
+                            setUpdateParameters(update, mutation.vehicle());
+                            update.addBatch();
+                        }
+                        update.executeBatch();
+                    }
+                    case DELETE -> {
+                        delete.setObject(1, run.stream().mapToLong(VehicleMutation::id).toArray());
+                        delete.executeUpdate();
+                    }
+                }
+                from = to;
+            }
+            connection.commit();
+            Metrics.ROWS_WRITTEN.add(mutations.size());
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            timing.close();
         }
     }
 
     public void removeVehicle(long id) {
-        Connection connection = createConnection();
+        LatencyHistogram.Sample timing = timed("removeVehicle");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM vehicle WHERE id = ?")) {
+            statement.setLong(1, id);
 
-        PreparedStatement statement = null;
+            Metrics.ROWS_WRITTEN.add(statement.executeUpdate());
 
-        try {
-            statement = connection.prepareStatement("DELETE FROM vehicle WHERE id = ?");
-            statement.setLong(1, id);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
 
-            statement.executeUpdate();
-            connection.close();
+    /**
+     * @param ids id удаляемых элементов
+     * Удаляет элементы запросами DELETE ... WHERE id = ANY(?) по BATCH_SIZE id в одной транзакции
+     */
+    public void removeVehicles(long[] ids) {
+        if (ids.length == 0) {
+            return;
+        }
+        LatencyHistogram.Sample timing = timed("removeVehicles");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM vehicle WHERE id = ANY(?)")) {
+            connection.setAutoCommit(false);
+            long deleted = 0;
+            for (int from = 0; from < ids.length; from += BATCH_SIZE) {
+                long[] chunk = Arrays.copyOfRange(ids, from, Math.min(from + BATCH_SIZE, ids.length));
+                statement.setObject(1, chunk);
+                deleted += statement.executeUpdate();
+            }
+            connection.commit();
+            Metrics.ROWS_WRITTEN.add(deleted);
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            timing.close();
         }
     }
 
-    public void removeAllVehicles() {
+    /**
+     * Открывает потоковую вставку командой COPY на отдельном соединении пула.
+     * Загрузчик нужно закрыть; вставка фиксируется его методом finish.
+     */
+    public VehicleBulkLoader openBulkLoader() {
         Connection connection = createConnection();
-
         try {
-            Statement statement = connection.createStatement();
-            statement.executeUpdate("DELETE FROM vehicle");
-            connection.close();
+            return new VehicleBulkLoader(this, connection);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.close();
+            } catch (SQLException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param vehicles Элементы для вставки
+     * Вставляет элементы одной командой COPY, проставив им id из последовательности
+     */
+    public VehicleBulkLoader.Result copyVehicles(Iterable<Vehicle> vehicles) {
+        try (VehicleBulkLoader loader = openBulkLoader()) {
+            for (Vehicle vehicle : vehicles) {
+                loader.add(vehicle);
+            }
+            return loader.finish();
+        }
+    }
+
+    /**
+     * @param count Количество id
+     * Выдаёт count id из последовательности столбца vehicle.id.
+     * Выданные id больше никем не используются, поэтому элемент можно вставить с ними позже.
+     */
+    protected long[] reserveIds(int count) {
+        LatencyHistogram.Sample timing = timed("reserveIds");
+        try (Connection connection = createConnection()) {
+            return reserveIds(connection, count);
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            timing.close();
         }
     }
 
-    public void removeLowerEnginePower(long power, User user) {
-        Connection connection = createConnection();
+    /**
+     * @param connection Соединение, на котором выполняется запрос; может быть в открытой транзакции
+     * @param count Количество id
+     * Выдаёт count id одним запросом nextval по generate_series. nextval не ждёт другие сеансы и не
+     * откатывается вместе с транзакцией, поэтому id уникальны и выдаются без блокировок, но при
+     * одновременных вставках могут идти не подряд.
+     */
+    long[] reserveIds(Connection connection, int count) throws SQLException {
+        String sequence = idSequence;
+        if (sequence == null) {
+            try (Statement statement = connection.createStatement()) {
+                ResultSet resultSet = statement.executeQuery("SELECT pg_get_serial_sequence('vehicle', 'id')");
+                resultSet.next();
+                sequence = idSequence = resultSet.getString(1);
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT nextval(?::regclass) FROM generate_series(1, ?)")) {
+            statement.setString(1, sequence);
+            statement.setInt(2, count);
+            ResultSet resultSet = statement.executeQuery();
+            long[] ids = new long[count];
+            int i = 0;
+            while (resultSet.next()) {
+                ids[i++] = resultSet.getLong(1);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Включает отслеживание изменений таблицы vehicle, если оно ещё не включено.
+     * Сначала схема проверяется по системным каталогам без блокировок: при каждом запуске клиента
+     * обычно всё уже на месте, и ALTER TABLE с его исключительной блокировкой vehicle не выполняется.
+     * Несколько процессов могут вызывать метод одновременно: изменения схемы сериализуются блокировкой
+     * и выполняются только для шагов, которые после её получения всё ещё не выполнены.
+     */
+    public void enableChangeTracking() {
+        LatencyHistogram.Sample timing = timed("enableChangeTracking");
+        try (Connection connection = createConnection();
+             Statement statement = connection.createStatement()) {
+            if (missingSchemaSteps(statement).isEmpty()) {
+                return;
+            }
+            connection.setAutoCommit(false);
+            statement.execute("SELECT pg_advisory_xact_lock(hashtext('vehicle_track_change'))");
+            for (SchemaStep step : missingSchemaSteps(statement)) {
+                statement.execute(step.create());
+            }
+            connection.commit();
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
+
+    private static List<SchemaStep> missingSchemaSteps(Statement statement) throws SQLException {
+        List<SchemaStep> missing = new ArrayList<>();
+        for (SchemaStep step : CHANGE_TRACKING_SCHEMA) {
+            if (!statement.executeQuery(step.exists()).next()) {
+                missing.add(step);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @param retentionMillis Сколько хранить записи об удалениях
+     * Удаляет записи об удалениях старше retentionMillis и сдвигает границу vehicle_deleted_horizon за
+     * последнюю удалённую запись. Отметка меньше границы устарела: readChanges вернёт для неё CHANGES_EXPIRED.
+     * Удаление записей и сдвиг границы выполняются одной командой, поэтому читатель видит либо оба, либо ни одного.
+     */
+    public void pruneDeletions(long retentionMillis) {
+        LatencyHistogram.Sample timing = timed("pruneDeletions");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "WITH pruned AS (DELETE FROM vehicle_deleted WHERE deleted_at < now() - ? * interval '1 millisecond' " +
+                             "RETURNING version) " +
+                             "UPDATE vehicle_deleted_horizon SET horizon = greatest(horizon, (SELECT max(version) + 1 FROM pruned))")) {
+            statement.setLong(1, retentionMillis);
+            statement.executeUpdate();
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
 
-        PreparedStatement statement = null;
+    /**
+     * Отметка для readChanges: все транзакции с меньшим id уже завершены.
+     * Берётся до полной загрузки, чтобы изменения, сделанные во время загрузки, не потерялись.
+     */
+    public long changeMark() {
+        LatencyHistogram.Sample timing = timed("changeMark");
+        try (Connection connection = createConnection();
+             Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT txid_snapshot_xmin(txid_current_snapshot())");
+            resultSet.next();
+            return resultSet.getLong(1);
 
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
+
+    /**
+     * @param since Отметка, полученная от changeMark или предыдущего вызова
+     * @param changed Получатель добавленных и изменённых элементов
+     * @param deleted Получатель id удалённых элементов
+     * Читает строки, изменённые транзакциями с id не меньше since, и id удалённых ими элементов.
+     * Возвращает отметку для следующего вызова: xmin снимка, в котором шло чтение. Транзакции с id от
+     * since до неё, завершившиеся позже, будут прочитаны в следующий раз; строка может прийти повторно,
+     * поэтому получатели должны быть идемпотентны. Если записи об удалениях после since уже очищены
+     * (см. pruneDeletions), получатели не вызываются и возвращается CHANGES_EXPIRED.
+     */
+    public long readChanges(long since, Consumer<Vehicle> changed, LongConsumer deleted) {
+        LatencyHistogram.Sample timing = timed("readChanges");
+        try (Connection connection = createConnection();
+             Statement mark = connection.createStatement();
+             PreparedStatement rows = connection.prepareStatement("SELECT * FROM vehicle WHERE version >= ?");
+             // id, вставленный снова после удаления, не считается удалённым
+             PreparedStatement deletions = connection.prepareStatement("SELECT id FROM vehicle_deleted d " +
+                     "WHERE version >= ? AND NOT EXISTS (SELECT 1 FROM vehicle v WHERE v.id = d.id)")) {
+            connection.setAutoCommit(false);
+            // изменения и удаления читаются из одного снимка, отметка - его xmin
+            mark.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            ResultSet markResult = mark.executeQuery("SELECT txid_snapshot_xmin(txid_current_snapshot()), " +
+                    "(SELECT horizon FROM vehicle_deleted_horizon)");
+            markResult.next();
+            long next = markResult.getLong(1);
+            if (since < markResult.getLong(2)) {
+                connection.commit();
+                return CHANGES_EXPIRED;
+            }
+
+            rows.setLong(1, since);
+            rows.setFetchSize(FETCH_SIZE);
+            long read = readVehicles(rows.executeQuery(), changed);
+            deletions.setLong(1, since);
+            ResultSet deletedIds = deletions.executeQuery();
+            while (deletedIds.next()) {
+                deleted.accept(deletedIds.getLong(1));
+                read++;
+            }
+            connection.commit();
+            Metrics.ROWS_READ.add(read);
+            return next;
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
+
+    /**
+     * Отдельное соединение вне пула для долгого ожидания уведомлений
+     */
+    public Connection createDedicatedConnection() {
         try {
-            statement = connection.prepareStatement("DELETE FROM vehicle WHERE engine_power < ? and user_login = ?");
+            return DriverManager.getConnection(DB_URL, USER, PASS);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void removeAllVehicles() {
+        LatencyHistogram.Sample timing = timed("removeAllVehicles");
+        try (Connection connection = createConnection();
+             Statement statement = connection.createStatement()) {
+            Metrics.ROWS_WRITTEN.add(statement.executeUpdate("DELETE FROM vehicle"));
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
+
+    public void removeLowerEnginePower(long power, User user) {
+        LatencyHistogram.Sample timing = timed("removeLowerEnginePower");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM vehicle WHERE engine_power < ? and user_login = ?")) {
             statement.setLong(1, power);
             statement.setString(2, user.getLogin());
 
-            statement.executeUpdate();
-            connection.close();
+            Metrics.ROWS_WRITTEN.add(statement.executeUpdate());
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            timing.close();
         }
     }
 
     public List<User> getUsers() {
-        Connection connection = createConnection();
-        Statement statement = null;
         List<User> users = new ArrayList<>();
-        try {
-            statement = connection.createStatement();
+        LatencyHistogram.Sample timing = timed("getUsers");
+        try (Connection connection = createConnection();
+             Statement statement = connection.createStatement()) {
             ResultSet resultSet = statement.executeQuery("SELECT * FROM user_info");
             while (resultSet.next()) {
                 long id = resultSet.getLong("id");
@@ -182,27 +711,114 @@ public class Repository {
                 users.add(user);
             }
 
-            connection.close();
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            timing.close();
         }
 
         return users;
     }
 
-    public void addUser(User user) {
-        Connection connection = createConnection();
-        PreparedStatement statement = null;
+    /**
+     * @param login Логин
+     * Возвращает пользователя с данным логином или null. Найденные пользователи кэшируются.
+     */
+    public User getUser(String login) {
+        LatencyHistogram.Sample timing = timed("getUser");
         try {
-            statement = connection.prepareStatement("INSERT INTO user_info VALUES (default, ?, ?) RETURNING ID");
+            User cached = users.get(login);
+            return cached != null ? cached : readUser(login);
+        } finally {
+            timing.close();
+        }
+    }
+
+    private User readUser(String login) {
+        ensureUserIndex();
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT id, login, password FROM user_info WHERE login = ?")) {
+            statement.setString(1, login);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            User user = new User(resultSet.getLong("id"), resultSet.getString("login"), resultSet.getString("password"));
+            users.put(user);
+            return user;
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param user Новый пользователь
+     * Добавляет пользователя, если логин свободен, и проставляет ему id. Проверка и вставка выполняются
+     * одной командой, поэтому два одновременных запроса не зарегистрируют один логин дважды.
+     * Возвращает false, если логин занят.
+     */
+    public boolean addUser(User user) {
+        ensureUserIndex();
+        LatencyHistogram.Sample timing = timed("addUser");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO user_info VALUES (default, ?, ?) ON CONFLICT (login) DO NOTHING RETURNING id")) {
             statement.setString(1, user.getLogin());
             statement.setString(2, user.getPassword());
 
             ResultSet resultSet = statement.executeQuery();
-            resultSet.next();
-            long id = resultSet.getLong(1);
-            user.setId(id);
-            connection.close();
+            if (!resultSet.next()) {
+                return false;
+            }
+            user.setId(resultSet.getLong(1));
+            users.put(user);
+            return true;
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
+
+    /**
+     * @param user Пользователь, прочитанный из базы
+     * @param password Новый хэш пароля
+     * Заменяет хэш пароля, если он не изменился с момента чтения пользователя
+     */
+    public void updatePassword(User user, String password) {
+        LatencyHistogram.Sample timing = timed("updatePassword");
+        try (Connection connection = createConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "UPDATE user_info SET password = ? WHERE id = ? AND password = ?")) {
+            statement.setString(1, password);
+            statement.setLong(2, user.getId());
+            statement.setString(3, user.getPassword());
+            if (statement.executeUpdate() > 0) {
+                users.put(new User(user.getId(), user.getLogin(), password));
+            } else {
+                users.invalidate(user.getLogin());
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            timing.close();
+        }
+    }
+
+    /**
+     * Создаёт уникальный индекс по логину, если его ещё нет. Выполняется один раз за время работы.
+     */
+    private void ensureUserIndex() {
+        if (userIndexReady) {
+            return;
+        }
+        try (Connection connection = createConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE UNIQUE INDEX IF NOT EXISTS user_info_login_idx ON user_info (login)");
+            userIndexReady = true;
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
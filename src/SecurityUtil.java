@@ -1,26 +1,61 @@
 package src;
 
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import src.security.PasswordHasher;
+import src.security.Pbkdf2PasswordHasher;
+import src.security.Sha224PasswordHasher;
 
+import java.util.List;
+
+/**
+ * Хэширование паролей пользователей.
+ * <p>
+ * Новые пароли хэшируются алгоритмом из свойства security.hasher: pbkdf2 (по умолчанию,
+ * стоимость задаёт security.pbkdf2.iterations) или sha224. Проверка понимает все известные форматы,
+ * включая хэши без префикса из прежних версий; хэш не текущего формата следует пересчитать
+ * при ближайшем успешном входе (см. needsRehash).
+ */
 public class SecurityUtil {
-    public static String hash224(String message) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-224");
-            byte[] messageDigest = md.digest(message.getBytes());
+    static final String HASHER = System.getProperty("security.hasher", "pbkdf2");
+    static final int PBKDF2_ITERATIONS = Integer.getInteger("security.pbkdf2.iterations", 310_000);
 
-            BigInteger no = new BigInteger(1, messageDigest);
-            String hashtext = no.toString(16);
+    private static final PasswordHasher CURRENT = switch (HASHER) {
+        case "pbkdf2" -> new Pbkdf2PasswordHasher(PBKDF2_ITERATIONS);
+        case "sha224" -> new Sha224PasswordHasher();
+        default -> throw new IllegalArgumentException("Неизвестный алгоритм хэширования паролей: " + HASHER);
+    };
+    private static final List<PasswordHasher> KNOWN = List.of(CURRENT,
+            new Pbkdf2PasswordHasher(PBKDF2_ITERATIONS), new Sha224PasswordHasher());
 
-            while (hashtext.length() < 32) {
-                hashtext = "0" + hashtext;
-            }
+    /**
+     * Хэш пароля для хранения текущим алгоритмом
+     */
+    public static String hashPassword(String password) {
+        return CURRENT.hash(password);
+    }
 
-            return hashtext;
-        }
-        catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    /**
+     * Проверяет пароль по сохранённому хэшу любого известного формата
+     */
+    public static boolean verifyPassword(String password, String stored) {
+        for (PasswordHasher hasher : KNOWN) {
+            if (hasher.supports(stored)) {
+                return hasher.verify(password, stored);
+            }
         }
+        return false;
+    }
+
+    /**
+     * Сохранён ли хэш не текущим алгоритмом или с другими параметрами
+     */
+    public static boolean needsRehash(String stored) {
+        return !CURRENT.supports(stored) || CURRENT.needsRehash(stored);
+    }
+
+    /**
+     * SHA-224 в формате прежних версий: шестнадцатеричная запись без ведущих нулей, не короче 32 символов
+     */
+    public static String hash224(String message) {
+        return Sha224PasswordHasher.legacyHash(message);
     }
 }
@@ -0,0 +1,75 @@
+package src;
+
+import src.collection.VehicleCollection;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Сетевой режим: принимает TCP-подключения и обслуживает каждое в отдельном сеансе.
+ * У каждого сеанса свой CommandInterpreter и свой авторизованный пользователь,
+ * коллекция и репозиторий общие для всех сеансов.
+ */
+public class Server {
+    private final int port;
+    private final Repository repository;
+    private final VehicleCollection vehicles;
+    private final CommandPipeline pipeline = CommandPipeline.fromSystemProperties();
+    private final ExecutorService sessions = newSessionExecutor();
+
+    public Server(int port) {
+        this.port = port;
+        this.repository = Repository.fromSystemProperties();
+        this.vehicles = new VehicleCollection();
+    }
+
+    /**
+     * Сеансы выполняются на виртуальных потоках, если JVM их поддерживает (Java 21+),
+     * иначе - на обычных потоках из неограниченного пула
+     */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Загружает коллекцию и принимает подключения, пока сервер не будет остановлен
+     */
+    public void start() {
+        // сеанс консоли сервера владеет конвейером, репозиторием и синхронизацией коллекции
+        CommandInterpreter console = new CommandInterpreter(repository, vehicles, pipeline, new Scanner(System.in), System.out);
+        console.load();
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Сервер запущен на порту " + port);
+            while (!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                sessions.execute(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            sessions.shutdown();
+            console.close();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             Scanner in = new Scanner(socket.getInputStream(), StandardCharsets.UTF_8);
+             PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            new CommandInterpreter(repository, vehicles, pipeline, in, out).run();
+        } catch (IOException e) {
+            System.out.println("Сеанс " + socket.getRemoteSocketAddress() + " завершён с ошибкой: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package src;
+
+import src.model.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш пользователей по логину, общий для всех сеансов.
+ * <p>
+ * Хранит не больше capacity записей, вытесняя давно не запрашивавшиеся; запись живёт ttlMillis
+ * с момента загрузки из базы, так что изменения user_info в обход приложения видны не позже чем через ttl.
+ * Отсутствие пользователя не кэшируется: иначе только что зарегистрированный в другом процессе
+ * пользователь не смог бы войти до истечения ttl.
+ */
+public class UserCache {
+    static final int SIZE = Integer.getInteger("users.cache.size", 1024);
+    static final long TTL_MILLIS = Long.getLong("users.cache.ttl", 60_000L);
+
+    private record CachedUser(User user, long expiresAt) {
+    }
+
+    private final long ttlNanos;
+    private final Map<String, CachedUser> entries;
+
+    public UserCache(int capacity, long ttlMillis) {
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public UserCache() {
+        this(SIZE, TTL_MILLIS);
+    }
+
+    /**
+     * Возвращает пользователя с данным логином или null, если его нет в кэше или запись устарела
+     */
+    public synchronized User get(String login) {
+        CachedUser entry = entries.get(login);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt() > 0) {
+            entries.remove(login);
+            return null;
+        }
+        return entry.user();
+    }
+
+    public synchronized void put(User user) {
+        if (ttlNanos > 0) {
+            entries.put(user.getLogin(), new CachedUser(user, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    public synchronized void invalidate(String login) {
+        entries.remove(login);
+    }
+}
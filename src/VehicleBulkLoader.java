@@ -0,0 +1,273 @@
+package src;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import src.metrics.Metrics;
+import src.model.Vehicle;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Потоковая массовая вставка в таблицу vehicle командами COPY в формате CSV в одной транзакции.
+ * <p>
+ * Элементы передаются по одному методом add: им сразу проставляются id, которые последовательность
+ * таблицы выдаёт блоками по ID_BLOCK_SIZE, строки кодируются прямо в байтовый буфер (без промежуточных
+ * строк и форматтеров) и отправляются серверу блоками по CHUNK_BYTES байт. Пока идёт COPY, соединение
+ * занято, поэтому на каждый блок id открывается своя команда COPY, а следующий блок запрашивается
+ * между ними на том же соединении: второе соединение из пула загрузчику не нужно.
+ * Вставка фиксируется только вызовом finish; если загрузчик закрыт раньше (например, из-за ошибки
+ * в данных), транзакция откатывается и в таблицу не попадает ни одна строка.
+ * <p>
+ * Не потокобезопасен.
+ */
+public class VehicleBulkLoader implements AutoCloseable {
+    static final int ID_BLOCK_SIZE = Integer.getInteger("db.bulkIdBlock", 10_000);
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final String COPY_VEHICLE = "COPY vehicle (id, name, coord_x, coord_y, creation_date, engine_power, " +
+            "number_wheels, vehicle_type, fuel_type, user_login) FROM STDIN WITH (FORMAT csv)";
+
+    /**
+     * Итог загрузки
+     * @param rows Количество вставленных строк
+     * @param nanos Время от открытия загрузчика до фиксации
+     */
+    public record Result(long rows, long nanos) {
+        public double seconds() {
+            return nanos / 1e9;
+        }
+
+        public double rowsPerSecond() {
+            return nanos > 0 ? rows * 1e9 / nanos : 0;
+        }
+    }
+
+    private final Repository repository;
+    private final Connection connection;
+    /**
+     * Текущая команда COPY или null между блоками id
+     */
+    private CopyIn copy;
+    private byte[] buffer = new byte[CHUNK_BYTES + 1024];
+    private int length;
+    private final long start = System.nanoTime();
+    private long[] ids = new long[0];
+    private int nextId;
+    private long count;
+
+    VehicleBulkLoader(Repository repository, Connection connection) throws SQLException {
+        this.repository = repository;
+        this.connection = connection;
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * @param vehicle Элемент для вставки
+     * Проставляет элементу id и добавляет его строку в COPY
+     */
+    public void add(Vehicle vehicle) {
+        if (nextId == ids.length) {
+            endCopy();
+            try {
+                ids = repository.reserveIds(connection, ID_BLOCK_SIZE);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            nextId = 0;
+        }
+        vehicle.setId(ids[nextId++]);
+        appendRow(vehicle);
+        count++;
+        if (length >= CHUNK_BYTES) {
+            send();
+        }
+    }
+
+    /**
+     * Отправляет оставшиеся строки и фиксирует вставку
+     */
+    public Result finish() {
+        endCopy();
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        long nanos = System.nanoTime() - start;
+        Metrics.repository("openBulkLoader").record(nanos);
+        Metrics.ROWS_WRITTEN.add(count);
+        return new Result(count, nanos);
+    }
+
+    private void send() {
+        try {
+            if (copy == null) {
+                copy = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_VEHICLE);
+            }
+            copy.writeToCopy(buffer, 0, length);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        length = 0;
+    }
+
+    /**
+     * Отправляет накопленные строки и завершает текущую команду COPY, освобождая соединение для запросов
+     */
+    private void endCopy() {
+        if (copy == null && length == 0) {
+            return;
+        }
+        send();
+        try {
+            copy.endCopy();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        copy = null;
+    }
+
+    private void appendRow(Vehicle vehicle) {
+        appendLong(vehicle.getId());
+        append(',');
+        appendText(vehicle.getName());
+        append(',');
+        appendLong(vehicle.getCoordinates().getX());
+        append(',');
+        appendLong(vehicle.getCoordinates().getY());
+        append(',');
+        appendTimestamp(vehicle.getCreationDate());
+        append(',');
+        appendLong(vehicle.getEnginePower());
+        append(',');
+        appendLong(vehicle.getNumberOfWheels());
+        append(',');
+        if (vehicle.getType() != null) {
+            appendLong(vehicle.getType().ordinal());
+        }
+        append(',');
+        if (vehicle.getFuelType() != null) {
+            appendLong(vehicle.getFuelType().ordinal());
+        }
+        append(',');
+        appendText(vehicle.getUserLogin());
+        append('\n');
+    }
+
+    private void append(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) c;
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            appendAscii(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int end = length + digitCount(value);
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Дописывает дату в виде yyyy-MM-dd HH:mm:ss.ffffff - с точностью столбца timestamp
+     */
+    private void appendTimestamp(LocalDateTime date) {
+        int year = date.getYear();
+        if (year < 1000 || year > 9999) {
+            appendAscii(date.toString());
+            return;
+        }
+        ensureCapacity(26);
+        appendDigits(year, 4);
+        buffer[length++] = '-';
+        appendDigits(date.getMonthValue(), 2);
+        buffer[length++] = '-';
+        appendDigits(date.getDayOfMonth(), 2);
+        buffer[length++] = ' ';
+        appendDigits(date.getHour(), 2);
+        buffer[length++] = ':';
+        appendDigits(date.getMinute(), 2);
+        buffer[length++] = ':';
+        appendDigits(date.getSecond(), 2);
+        buffer[length++] = '.';
+        appendDigits(date.getNano() / 1000, 6);
+    }
+
+    private void appendDigits(int value, int count) {
+        for (int i = length + count - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += count;
+    }
+
+    private void appendAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[length++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Строка в кавычках с удвоением кавычек: так COPY в формате CSV отличает её от NULL.
+     * Кавычка в UTF-8 не встречается внутри многобайтовых символов, поэтому удваивается побайтно.
+     */
+    private void appendText(String value) {
+        if (value == null) {
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(bytes.length * 2 + 2);
+        buffer[length++] = '"';
+        for (byte b : bytes) {
+            if (b == '"') {
+                buffer[length++] = '"';
+            }
+            buffer[length++] = b;
+        }
+        buffer[length++] = '"';
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    /**
+     * Отменяет COPY, если вставка не была зафиксирована, и возвращает соединение в пул,
+     * который откатывает незафиксированную транзакцию
+     */
+    @Override
+    public void close() {
+        try {
+            if (copy != null && copy.isActive()) {
+                copy.cancelCopy();
+            }
+            connection.close();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
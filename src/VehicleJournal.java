@@ -0,0 +1,271 @@
+package src;
+
+import src.model.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал изменений таблицы vehicle в отображённом в память файле фиксированного размера.
+ * <p>
+ * Формат: заголовок (сигнатура и смещение контрольной точки), затем записи
+ * [длина][CRC32][вид изменения][данные]. За последней записью всегда лежит нулевая длина.
+ * Записи до контрольной точки уже перенесены в базу; записи после неё повторяются при запуске.
+ * Запись с неверной контрольной суммой (оборванная при сбое) и всё после неё отбрасываются.
+ * Когда в базу перенесено всё, журнал начинается заново с начала файла.
+ * <p>
+ * Не потокобезопасен, синхронизацию обеспечивает владелец.
+ */
+public class VehicleJournal implements Closeable {
+    /**
+     * Когда сбрасывать записи журнала на диск
+     */
+    public enum FsyncPolicy {
+        /**
+         * После каждой записи: подтверждённое изменение не теряется даже при отказе ОС
+         */
+        ALWAYS,
+        /**
+         * Периодически, вызовом force() владельцем
+         */
+        INTERVAL,
+        /**
+         * Сброс на усмотрение ОС: изменения переживают падение процесса, но не отказ ОС
+         */
+        NEVER
+    }
+
+    private static final int MAGIC = 0x564A4E4C;
+    private static final int CHECKPOINT_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final FsyncPolicy fsync;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private int position;
+    private int checkpoint;
+
+    public VehicleJournal(Path path, int capacity, FsyncPolicy fsync) {
+        this.fsync = fsync;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            reset();
+        } else {
+            checkpoint = (int) buffer.getLong(CHECKPOINT_OFFSET);
+            position = checkpoint;
+        }
+    }
+
+    /**
+     * Читает изменения, не перенесённые в базу, и ставит позицию записи после последнего целого изменения
+     */
+    public List<VehicleMutation> recover() {
+        List<VehicleMutation> mutations = new ArrayList<>();
+        int offset = checkpoint;
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            ByteBuffer record = buffer.slice(offset + RECORD_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            mutations.add(decode(record));
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        position = offset;
+        terminate();
+        return mutations;
+    }
+
+    /**
+     * @param mutations Изменения для записи; у добавляемых элементов id уже должен быть назначен
+     * Дописывает изменения в журнал одной пачкой. Возвращает false, если они не помещаются: тогда ничего
+     * не записано, и место нужно освободить переносом записей в базу.
+     */
+    public boolean append(List<VehicleMutation> mutations) {
+        int start = position;
+        int offset = position;
+        int firstLength = 0;
+        for (VehicleMutation mutation : mutations) {
+            ByteBuffer record = encode(mutation);
+            int length = record.remaining();
+            // место под запись и завершающую нулевую длину
+            if (offset + RECORD_HEADER_SIZE + length + 4 > buffer.capacity()) {
+                buffer.putInt(start, 0);
+                return false;
+            }
+            crc.reset();
+            crc.update(record.duplicate());
+            buffer.put(offset + RECORD_HEADER_SIZE, record, 0, length);
+            buffer.putInt(offset + 4, (int) crc.getValue());
+            if (offset == start) {
+                firstLength = length;
+            } else {
+                buffer.putInt(offset, length);
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        buffer.putInt(offset, 0);
+        // длина первой записи пишется последней: до этого момента журнал заканчивается на start,
+        // так что пачка при сбое повторяется либо целиком, либо никак
+        buffer.putInt(start, firstLength);
+        position = offset;
+        if (fsync == FsyncPolicy.ALWAYS) {
+            buffer.force(start, position + 4 - start);
+        }
+        return true;
+    }
+
+    private ByteBuffer encode(VehicleMutation mutation) {
+        while (true) {
+            try {
+                scratch.clear();
+                scratch.put((byte) mutation.kind().ordinal());
+                if (mutation.kind() == VehicleMutation.Kind.DELETE) {
+                    scratch.putLong(mutation.id());
+                } else {
+                    Vehicle vehicle = mutation.vehicle();
+                    LocalDateTime creationDate = vehicle.getCreationDate();
+                    scratch.putLong(vehicle.getId());
+                    putString(vehicle.getName());
+                    scratch.putInt(vehicle.getCoordinates().getX());
+                    scratch.putInt(vehicle.getCoordinates().getY());
+                    scratch.putLong(creationDate.toEpochSecond(ZoneOffset.UTC));
+                    scratch.putInt(creationDate.getNano());
+                    scratch.putLong(vehicle.getEnginePower());
+                    scratch.putInt(vehicle.getNumberOfWheels());
+                    scratch.put((byte) (vehicle.getType() == null ? -1 : vehicle.getType().ordinal()));
+                    scratch.put((byte) (vehicle.getFuelType() == null ? -1 : vehicle.getFuelType().ordinal()));
+                    putString(vehicle.getUserLogin());
+                }
+                return scratch.flip();
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            scratch.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        scratch.putInt(bytes.length);
+        scratch.put(bytes);
+    }
+
+    private static VehicleMutation decode(ByteBuffer record) {
+        VehicleMutation.Kind kind = VehicleMutation.Kind.values()[record.get()];
+        if (kind == VehicleMutation.Kind.DELETE) {
+            return VehicleMutation.delete(record.getLong());
+        }
+        long id = record.getLong();
+        String name = getString(record);
+        Coordinates coordinates = new Coordinates(record.getInt(), record.getInt());
+        LocalDateTime creationDate = LocalDateTime.ofEpochSecond(record.getLong(), record.getInt(), ZoneOffset.UTC);
+        long enginePower = record.getLong();
+        int numberOfWheels = record.getInt();
+        byte type = record.get();
+        byte fuelType = record.get();
+        Vehicle vehicle = new Vehicle(id, name, coordinates, creationDate, enginePower, numberOfWheels,
+                type < 0 ? null : VehicleType.values()[type], fuelType < 0 ? null : FuelType.values()[fuelType]);
+        vehicle.setUserLogin(getString(record));
+        return kind == VehicleMutation.Kind.INSERT ? VehicleMutation.insert(vehicle) : VehicleMutation.update(vehicle);
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Позиция конца журнала: всё до неё записано
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * @param offset Позиция, до которой изменения перенесены в базу
+     * Сдвигает контрольную точку. Если перенесено всё, журнал начинается заново.
+     */
+    public void checkpoint(int offset) {
+        if (offset == position) {
+            reset();
+            return;
+        }
+        checkpoint = offset;
+        buffer.putLong(CHECKPOINT_OFFSET, checkpoint);
+        if (fsync != FsyncPolicy.NEVER) {
+            buffer.force(0, HEADER_SIZE);
+        }
+    }
+
+    public boolean isEmpty() {
+        return position == checkpoint;
+    }
+
+    /**
+     * Сбрасывает записанное на диск
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    private void reset() {
+        position = HEADER_SIZE;
+        checkpoint = HEADER_SIZE;
+        terminate();
+        buffer.putLong(CHECKPOINT_OFFSET, checkpoint);
+        if (fsync != FsyncPolicy.NEVER) {
+            buffer.force(0, HEADER_SIZE + 4);
+        }
+    }
+
+    private void terminate() {
+        if (position + 4 <= buffer.capacity()) {
+            buffer.putInt(position, 0);
+        }
+    }
+
+    @Override
+    public void close() {
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
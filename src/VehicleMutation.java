@@ -0,0 +1,29 @@
+package src;
+
+import src.model.Vehicle;
+
+/**
+ * Изменение таблицы vehicle, которое можно записать в базу вместе с другими изменениями одной транзакцией
+ * @param kind Вид изменения
+ * @param vehicle Добавляемый элемент или новая версия элемента (для DELETE - null)
+ * @param id id изменяемого элемента (для INSERT не используется: id берётся из vehicle)
+ */
+public record VehicleMutation(Kind kind, Vehicle vehicle, long id) {
+    public enum Kind {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    public static VehicleMutation insert(Vehicle vehicle) {
+        return new VehicleMutation(Kind.INSERT, vehicle, 0);
+    }
+
+    public static VehicleMutation update(Vehicle vehicle) {
+        return new VehicleMutation(Kind.UPDATE, vehicle, vehicle.getId());
+    }
+
+    public static VehicleMutation delete(long id) {
+        return new VehicleMutation(Kind.DELETE, null, id);
+    }
+}
@@ -0,0 +1,164 @@
+package src;
+
+import org.postgresql.PGConnection;
+import src.collection.VehicleCollection;
+import src.io.VehicleSnapshot;
+import src.model.Vehicle;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Поддерживает коллекцию в актуальном состоянии после загрузки: ждёт уведомлений об изменении таблицы
+ * vehicle на отдельном соединении и переносит в коллекцию только изменённые строки и удаления.
+ * Если уведомления не приходят, изменения всё равно проверяются раз в POLL_INTERVAL_MILLIS.
+ * При обрыве соединения оно открывается заново, пропущенные изменения подбираются по отметке.
+ * <p>
+ * Раз в SNAPSHOT_INTERVAL_MILLIS и при остановке записывает снимок коллекции вместе с отметкой,
+ * до которой коллекция согласована с базой: следующий запуск берёт элементы из снимка
+ * и догружает из базы только более поздние изменения.
+ * <p>
+ * Раз в PRUNE_INTERVAL_MILLIS удаляет записи об удалениях старше TOMBSTONE_RETENTION_MILLIS.
+ * Клиент или снимок, отставшие дольше этого срока, загружают коллекцию заново.
+ */
+public class VehicleSync implements AutoCloseable {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("sync.enabled", "true"));
+    static final int POLL_INTERVAL_MILLIS = Integer.getInteger("sync.pollInterval", 10_000);
+    static final long RECONNECT_DELAY_MILLIS = Long.getLong("sync.reconnectDelay", 5_000L);
+    static final boolean SNAPSHOT_ENABLED = Boolean.parseBoolean(System.getProperty("snapshot.enabled", "true"));
+    static final Path SNAPSHOT_PATH = Path.of(System.getProperty("snapshot.path", "vehicles.snapshot"));
+    static final long SNAPSHOT_INTERVAL_MILLIS = Long.getLong("snapshot.interval", 300_000L);
+    static final long TOMBSTONE_RETENTION_MILLIS = Long.getLong("sync.tombstoneRetention", 7 * 86_400_000L);
+    static final long PRUNE_INTERVAL_MILLIS = Long.getLong("sync.pruneInterval", 3_600_000L);
+
+    private final Repository repository;
+    private final VehicleCollection vehicles;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Connection connection;
+    private long mark;
+    private long lastSnapshotMillis = System.currentTimeMillis();
+    private long lastPruneMillis;
+
+    /**
+     * @param mark Отметка Repository.changeMark, взятая до загрузки коллекции
+     */
+    public VehicleSync(Repository repository, VehicleCollection vehicles, long mark) {
+        this.repository = repository;
+        this.vehicles = vehicles;
+        this.mark = mark;
+        this.thread = new Thread(this::run, "vehicle-sync");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection connection = repository.createDedicatedConnection()) {
+                this.connection = connection;
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + Repository.CHANGES_CHANNEL);
+                }
+                PGConnection listener = connection.unwrap(PGConnection.class);
+                // изменения, сделанные до LISTEN, уведомлений уже не пришлют
+                sync();
+                while (running) {
+                    // уведомления лишь будят поток: что изменилось, определяет отметка, поэтому пачка
+                    // уведомлений обрабатывается одним чтением, а по таймауту изменения проверяются на всякий случай
+                    listener.getNotifications(POLL_INTERVAL_MILLIS);
+                    if (running) {
+                        sync();
+                        if (SNAPSHOT_ENABLED && System.currentTimeMillis() - lastSnapshotMillis >= SNAPSHOT_INTERVAL_MILLIS) {
+                            writeSnapshot();
+                        }
+                        if (System.currentTimeMillis() - lastPruneMillis >= PRUNE_INTERVAL_MILLIS) {
+                            repository.pruneDeletions(TOMBSTONE_RETENTION_MILLIS);
+                            lastPruneMillis = System.currentTimeMillis();
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    break;
+                }
+                System.err.println("Синхронизация коллекции прервана, повтор через " + RECONNECT_DELAY_MILLIS + " мс: " + e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Переносит в коллекцию изменения после текущей отметки и сдвигает отметку
+     */
+    private void sync() {
+        long next = repository.readChanges(mark, vehicles::add, vehicles::remove);
+        if (next == Repository.CHANGES_EXPIRED) {
+            reload();
+        } else {
+            mark = next;
+        }
+    }
+
+    /**
+     * Загружает коллекцию заново, когда синхронизация отстала дольше, чем хранятся записи об удалениях.
+     * Изменения, завершившиеся во время загрузки, прочитаются следующим sync по новой отметке.
+     */
+    private void reload() {
+        long reloadMark = repository.changeMark();
+        List<Vehicle> loaded = repository.getVehicles();
+        vehicles.clear();
+        vehicles.addAll(loaded);
+        mark = reloadMark;
+        System.err.println("Синхронизация отстала дольше sync.tombstoneRetention, коллекция загружена заново");
+    }
+
+    /**
+     * Записывает снимок коллекции с текущей отметкой. Отметка берётся до перебора элементов:
+     * изменения, попавшие в коллекцию во время перебора, при следующем запуске просто прочитаются ещё раз.
+     */
+    private void writeSnapshot() {
+        long snapshotMark = mark;
+        try {
+            VehicleSnapshot.write(vehicles, snapshotMark, SNAPSHOT_PATH);
+        } catch (RuntimeException e) {
+            System.err.println("Не удалось записать снимок коллекции: " + e.getMessage());
+        }
+        lastSnapshotMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Останавливает поток синхронизации и записывает последний снимок
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        Connection current = connection;
+        if (current != null) {
+            try {
+                // прерывает ожидание уведомлений
+                current.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (SNAPSHOT_ENABLED) {
+            writeSnapshot();
+        }
+    }
+}
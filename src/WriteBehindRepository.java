@@ -0,0 +1,280 @@
+package src;
+
+import src.model.User;
+import src.model.Vehicle;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Репозиторий с отложенной записью. Изменения элементов дописываются в локальный журнал
+ * и считаются выполненными сразу после этого; в таблицу vehicle они переносятся фоновым потоком
+ * пачками раз в FLUSH_INTERVAL_MILLIS (или раньше, когда накопится BATCH_SIZE изменений),
+ * причём несколько изменений одного элемента в пачке сводятся к одному.
+ * <p>
+ * Добавляемым элементам id выдаются сразу из последовательности таблицы блоками по ID_BLOCK_SIZE.
+ * При запуске изменения, оставшиеся в журнале после сбоя, переносятся в базу до первого чтения.
+ * Чтение элементов и удаление по условию (clear всех, remove_lower) сначала дожидаются переноса
+ * всех изменений, поэтому база при этом видит всё, что уже подтверждено.
+ */
+public class WriteBehindRepository extends Repository {
+    static final String JOURNAL_PATH = System.getProperty("writeBehind.journal", "vehicle.journal");
+    static final int JOURNAL_SIZE = Integer.getInteger("writeBehind.journalSize", 64 * 1024 * 1024);
+    static final VehicleJournal.FsyncPolicy FSYNC =
+            VehicleJournal.FsyncPolicy.valueOf(System.getProperty("writeBehind.fsync", "ALWAYS").toUpperCase());
+    static final long FLUSH_INTERVAL_MILLIS = Long.getLong("writeBehind.flushInterval", 200L);
+    static final int ID_BLOCK_SIZE = Integer.getInteger("writeBehind.idBlock", 1000);
+
+    private final VehicleJournal journal;
+    /**
+     * Защищает журнал и очередь изменений, ещё не перенесённых в базу
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Сериализует перенос в базу, чтобы пачки записывались в порядке журнала
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+    private List<VehicleMutation> pending = new ArrayList<>();
+    private long[] reservedIds = new long[0];
+    private int nextReservedId;
+
+    public WriteBehindRepository() {
+        this(new ConnectionPool(DB_URL, USER, PASS, POOL_SIZE, POOL_VALIDATION_TIMEOUT_SECONDS,
+                POOL_IDLE_TIMEOUT_MILLIS, POOL_MAX_LIFETIME_MILLIS, POOL_ACQUIRE_TIMEOUT_MILLIS,
+                STATEMENT_CACHE_SIZE, PREPARE_THRESHOLD), Path.of(JOURNAL_PATH));
+    }
+
+    public WriteBehindRepository(ConnectionPool pool, Path journalPath) {
+        super(pool);
+        journal = new VehicleJournal(journalPath, JOURNAL_SIZE, FSYNC);
+        List<VehicleMutation> recovered = journal.recover();
+        if (!recovered.isEmpty()) {
+            writeMutations(coalesce(recovered), true);
+            journal.checkpoint(journal.position());
+            System.out.println("Из журнала восстановлено изменений: " + recovered.size());
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void addVehicle(Vehicle vehicle) {
+        append(List.of(VehicleMutation.insert(vehicle)));
+    }
+
+    @Override
+    public void addVehicles(List<Vehicle> vehicles) {
+        List<VehicleMutation> mutations = new ArrayList<>(vehicles.size());
+        for (Vehicle vehicle : vehicles) {
+            mutations.add(VehicleMutation.insert(vehicle));
+        }
+        append(mutations);
+    }
+
+    @Override
+    public void updateVehicle(Vehicle vehicle) {
+        append(List.of(VehicleMutation.update(vehicle)));
+    }
+
+    @Override
+    public void removeVehicle(long id) {
+        append(List.of(VehicleMutation.delete(id)));
+    }
+
+    @Override
+    public void removeVehicles(long[] ids) {
+        List<VehicleMutation> mutations = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            mutations.add(VehicleMutation.delete(id));
+        }
+        append(mutations);
+    }
+
+    @Override
+    public void applyMutations(List<VehicleMutation> mutations) {
+        append(mutations);
+    }
+
+    @Override
+    public void removeAllVehicles() {
+        flush();
+        super.removeAllVehicles();
+    }
+
+    @Override
+    public void removeLowerEnginePower(long power, User user) {
+        flush();
+        super.removeLowerEnginePower(power, user);
+    }
+
+    @Override
+    public long streamVehicles(Consumer<Vehicle> consumer) {
+        flush();
+        return super.streamVehicles(consumer);
+    }
+
+    /**
+     * Назначает id добавляемым элементам и дописывает изменения в журнал.
+     * Если журнал заполнен, сначала переносит накопленное в базу.
+     */
+    private void append(List<VehicleMutation> mutations) {
+        if (mutations.isEmpty()) {
+            return;
+        }
+        assignIds(mutations);
+        while (true) {
+            lock.lock();
+            try {
+                if (journal.append(mutations)) {
+                    pending.addAll(mutations);
+                    if (pending.size() >= BATCH_SIZE && pending.size() - mutations.size() < BATCH_SIZE) {
+                        flusher.execute(this::flushQuietly);
+                    }
+                    return;
+                }
+                if (journal.isEmpty()) {
+                    throw new IllegalStateException("Изменения не помещаются в журнал размером " + JOURNAL_SIZE + " байт");
+                }
+            } finally {
+                lock.unlock();
+            }
+            flush();
+        }
+    }
+
+    private void assignIds(List<VehicleMutation> mutations) {
+        lock.lock();
+        try {
+            for (VehicleMutation mutation : mutations) {
+                if (mutation.kind() == VehicleMutation.Kind.INSERT) {
+                    if (nextReservedId == reservedIds.length) {
+                        reservedIds = reserveIds(ID_BLOCK_SIZE);
+                        nextReservedId = 0;
+                    }
+                    mutation.vehicle().setId(reservedIds[nextReservedId++]);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Переносит в базу все изменения, записанные в журнал к моменту вызова, одной транзакцией
+     * и сдвигает контрольную точку журнала
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<VehicleMutation> batch;
+            int end;
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                if (FSYNC == VehicleJournal.FsyncPolicy.INTERVAL) {
+                    journal.force();
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                end = journal.position();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                writeMutations(coalesce(batch), true);
+            } catch (RuntimeException e) {
+                // изменения остаются в журнале и очереди и будут записаны следующей попыткой
+                lock.lock();
+                try {
+                    batch.addAll(pending);
+                    pending = batch;
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+
+            lock.lock();
+            try {
+                journal.checkpoint(end);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Отложенная запись не удалась, будет повторена: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Сводит изменения одного элемента к одному: вставка с последующими изменениями - к вставке
+     * последней версии, вставка с удалением - ни к чему, несколько изменений - к последнему,
+     * изменение с удалением - к удалению. Изменения разных элементов независимы.
+     */
+    static List<VehicleMutation> coalesce(List<VehicleMutation> mutations) {
+        Map<Long, VehicleMutation> byId = new LinkedHashMap<>();
+        for (VehicleMutation mutation : mutations) {
+            long id = mutation.kind() == VehicleMutation.Kind.DELETE ? mutation.id() : mutation.vehicle().getId();
+            VehicleMutation previous = byId.get(id);
+            if (previous == null) {
+                byId.put(id, mutation);
+                continue;
+            }
+            boolean inserted = previous.kind() == VehicleMutation.Kind.INSERT;
+            switch (mutation.kind()) {
+                case INSERT, UPDATE -> byId.put(id, inserted ? VehicleMutation.insert(mutation.vehicle()) : mutation);
+                case DELETE -> {
+                    if (inserted) {
+                        byId.remove(id);
+                    } else {
+                        byId.put(id, mutation);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Останавливает фоновый перенос, переносит оставшиеся изменения и закрывает журнал и пул
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            journal.close();
+            super.close();
+        }
+    }
+}
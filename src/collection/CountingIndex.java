@@ -0,0 +1,48 @@
+package src.collection;
+
+import src.model.Vehicle;
+
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Агрегат "значение поля -> количество элементов", который обновляется при каждом изменении коллекции,
+ * так что подсчёт по группам сводится к чтению готового состояния
+ */
+public class CountingIndex implements VehicleIndex {
+    private final Predicate<Vehicle> hasKey;
+    private final ToLongFunction<Vehicle> keyExtractor;
+    private final LongCountMap counts = new LongCountMap();
+
+    /**
+     * @param hasKey Условие, при котором элемент учитывается (например, поле не пустое)
+     * @param keyExtractor Значение поля
+     */
+    public CountingIndex(Predicate<Vehicle> hasKey, ToLongFunction<Vehicle> keyExtractor) {
+        this.hasKey = hasKey;
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    public void add(Vehicle vehicle) {
+        if (hasKey.test(vehicle)) {
+            counts.add(keyExtractor.applyAsLong(vehicle), 1);
+        }
+    }
+
+    @Override
+    public void remove(Vehicle vehicle) {
+        if (hasKey.test(vehicle)) {
+            counts.add(keyExtractor.applyAsLong(vehicle), -1);
+        }
+    }
+
+    @Override
+    public void clear() {
+        counts.clear();
+    }
+
+    LongCountMap getCounts() {
+        return counts;
+    }
+}
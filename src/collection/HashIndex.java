@@ -0,0 +1,63 @@
+package src.collection;
+
+import src.model.Vehicle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Хеш-индекс: значение поля -> элементы с этим значением.
+ * Внутри группы элементы хранятся по id, поэтому удаление из группы стоит O(1).
+ */
+public class HashIndex<K> implements VehicleIndex {
+    private final Function<Vehicle, K> keyExtractor;
+    private final Map<K, LongObjectMap<Vehicle>> buckets = new HashMap<>();
+
+    public HashIndex(Function<Vehicle, K> keyExtractor) {
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    public void add(Vehicle vehicle) {
+        buckets.computeIfAbsent(keyExtractor.apply(vehicle), key -> new LongObjectMap<>())
+                .put(vehicle.getId(), vehicle);
+    }
+
+    @Override
+    public void remove(Vehicle vehicle) {
+        K key = keyExtractor.apply(vehicle);
+        LongObjectMap<Vehicle> bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.remove(vehicle.getId());
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        buckets.clear();
+    }
+
+    /**
+     * Возвращает элементы с данным значением поля в произвольном порядке
+     */
+    public List<Vehicle> get(K key) {
+        LongObjectMap<Vehicle> bucket = buckets.get(key);
+        if (bucket == null) {
+            return new ArrayList<>();
+        }
+        List<Vehicle> result = new ArrayList<>(bucket.size());
+        bucket.forEachValue(result::add);
+        return result;
+    }
+
+    public int count(K key) {
+        LongObjectMap<Vehicle> bucket = buckets.get(key);
+        return bucket == null ? 0 : bucket.size();
+    }
+}
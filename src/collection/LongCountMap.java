@@ -0,0 +1,189 @@
+package src.collection;
+
+import java.util.Arrays;
+
+/**
+ * Отображение long -> количество на двух примитивных массивах без упаковки: хэш-таблица с открытой
+ * адресацией и линейным пробированием, поэтому изменение количества стоит O(1) при любом числе
+ * различных ключей. Нулевое количество обозначает пустую ячейку: ключ с нулевым количеством удаляется
+ * сдвигом следующих ячеек цепочки, без надгробий.
+ * Упорядоченный обход строит отсортированный массив ключей лишь при первом обходе после изменения
+ * набора ключей; подсчёт по диапазону просматривает таблицу и ничего не строит.
+ * Не потокобезопасна; несколько потоков могут одновременно вызывать get, countInRange, size и total,
+ * если никто не изменяет отображение.
+ */
+public class LongCountMap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private int size;
+    private long total;
+    /**
+     * Ключи по возрастанию или null, если набор ключей изменился после последнего упорядоченного обхода
+     */
+    private long[] sortedKeys;
+
+    /**
+     * Прибавляет delta к количеству для ключа. Ключ с нулевым количеством удаляется.
+     */
+    public void add(long key, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        int slot = slotOf(key);
+        if (counts[slot] != 0) {
+            counts[slot] += delta;
+            if (counts[slot] == 0) {
+                removeAt(slot);
+                size--;
+                sortedKeys = null;
+            }
+        }
+        else {
+            keys[slot] = key;
+            counts[slot] = delta;
+            size++;
+            sortedKeys = null;
+            // заполнение не больше половины, чтобы цепочки линейного пробирования оставались короткими
+            if (size * 2 > keys.length) {
+                resize(keys.length << 1);
+            }
+        }
+        total += delta;
+    }
+
+    public long get(long key) {
+        return counts[slotOf(key)];
+    }
+
+    /**
+     * Суммарное количество по ключам из отрезка [from, to]
+     */
+    public long countInRange(long from, long to) {
+        long sum = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0 && keys[i] >= from && keys[i] <= to) {
+                sum += counts[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Передаёт пары ключ-количество из отрезка [from, to] в порядке возрастания ключа
+     */
+    public void forEachInRange(long from, long to, LongLongConsumer action) {
+        long[] sorted = sortedKeys();
+        int index = Arrays.binarySearch(sorted, from);
+        for (int i = index >= 0 ? index : -index - 1; i < sorted.length && sorted[i] <= to; i++) {
+            action.accept(sorted[i], get(sorted[i]));
+        }
+    }
+
+    public void forEach(LongLongConsumer action) {
+        forEachInRange(Long.MIN_VALUE, Long.MAX_VALUE, action);
+    }
+
+    private long[] sortedKeys() {
+        if (sortedKeys == null) {
+            long[] sorted = new long[size];
+            int next = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (counts[i] != 0) {
+                    sorted[next++] = keys[i];
+                }
+            }
+            Arrays.sort(sorted);
+            sortedKeys = sorted;
+        }
+        return sortedKeys;
+    }
+
+    /**
+     * Ячейка с данным ключом или пустая ячейка, в которую он был бы вставлен
+     */
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (counts[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * Освобождает ячейку, сдвигая в неё следующие элементы цепочки, которые без неё стали бы недостижимы
+     */
+    private void removeAt(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; counts[next] != 0; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                counts[hole] = counts[next];
+                hole = next;
+            }
+        }
+        counts[hole] = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Количество различных ключей
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Сумма количеств по всем ключам
+     */
+    public long total() {
+        return total;
+    }
+
+    public void clear() {
+        keys = new long[INITIAL_CAPACITY];
+        counts = new long[INITIAL_CAPACITY];
+        size = 0;
+        total = 0;
+        sortedKeys = null;
+    }
+
+    /**
+     * Независимая копия отображения
+     */
+    public LongCountMap copy() {
+        LongCountMap copy = new LongCountMap();
+        copy.keys = keys.clone();
+        copy.counts = counts.clone();
+        copy.size = size;
+        copy.total = total;
+        copy.sortedKeys = sortedKeys;
+        return copy;
+    }
+
+    @FunctionalInterface
+    public interface LongLongConsumer {
+        void accept(long key, long count);
+    }
+}
@@ -0,0 +1,55 @@
+package src.collection;
+
+import src.model.Vehicle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Упорядоченный индекс по числовому полю отдельно для каждого значения ключа (например, владельца):
+ * выборка по диапазону внутри группы стоит столько, сколько элементов в результате, а не во всём индексе.
+ */
+public class PartitionedSortedIndex<K> implements VehicleIndex {
+    private final Function<Vehicle, K> partitionExtractor;
+    private final Function<Vehicle, Long> keyExtractor;
+    private final Map<K, SortedIndex> partitions = new HashMap<>();
+
+    public PartitionedSortedIndex(Function<Vehicle, K> partitionExtractor, Function<Vehicle, Long> keyExtractor) {
+        this.partitionExtractor = partitionExtractor;
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    public void add(Vehicle vehicle) {
+        partitions.computeIfAbsent(partitionExtractor.apply(vehicle), key -> new SortedIndex(keyExtractor))
+                .add(vehicle);
+    }
+
+    @Override
+    public void remove(Vehicle vehicle) {
+        K key = partitionExtractor.apply(vehicle);
+        SortedIndex partition = partitions.get(key);
+        if (partition != null) {
+            partition.remove(vehicle);
+            if (partition.isEmpty()) {
+                partitions.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        partitions.clear();
+    }
+
+    /**
+     * Возвращает элементы группы partition, у которых значение поля строго меньше заданного
+     */
+    public List<Vehicle> lessThan(K partition, long bound) {
+        SortedIndex index = partitions.get(partition);
+        return index == null ? new ArrayList<>() : index.lessThan(bound);
+    }
+}
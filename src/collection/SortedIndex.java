@@ -0,0 +1,64 @@
+package src.collection;
+
+import src.model.Vehicle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Упорядоченный индекс по числовому полю: позволяет выбирать элементы по диапазону значений.
+ * Элементы с пустым значением поля в индекс не попадают.
+ */
+public class SortedIndex implements VehicleIndex {
+    private final Function<Vehicle, Long> keyExtractor;
+    private final TreeMap<Long, LongObjectMap<Vehicle>> buckets = new TreeMap<>();
+
+    public SortedIndex(Function<Vehicle, Long> keyExtractor) {
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    public void add(Vehicle vehicle) {
+        Long key = keyExtractor.apply(vehicle);
+        if (key != null) {
+            buckets.computeIfAbsent(key, k -> new LongObjectMap<>()).put(vehicle.getId(), vehicle);
+        }
+    }
+
+    @Override
+    public void remove(Vehicle vehicle) {
+        Long key = keyExtractor.apply(vehicle);
+        if (key == null) {
+            return;
+        }
+        LongObjectMap<Vehicle> bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.remove(vehicle.getId());
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        buckets.clear();
+    }
+
+    public boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    /**
+     * Возвращает элементы, у которых значение поля строго меньше заданного
+     */
+    public List<Vehicle> lessThan(long bound) {
+        List<Vehicle> result = new ArrayList<>();
+        for (LongObjectMap<Vehicle> bucket : buckets.headMap(bound, false).values()) {
+            bucket.forEachValue(result::add);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,350 @@
+package src.collection;
+
+import src.model.Vehicle;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Коллекция элементов, упорядоченная по compareTo, с индексом по id и вторичными индексами
+ * по владельцу, количеству колёс и мощности двигателя (отдельно для каждого владельца).
+ * Все изменения проходят через этот класс, поэтому упорядоченное множество и индексы всегда согласованы.
+ * <p>
+ * Коллекция потокобезопасна. Элементы лежат в ConcurrentSkipListSet, поэтому перебор (show), размер и
+ * границы (info, add_if_max) читаются без блокировок и не мешают изменениям. Изменения сериализуются
+ * блокировкой записи; поиск по id и по вторичным индексам берёт блокировку чтения только на время
+ * копирования результата. Элементы коллекции не изменяются на месте: новая версия элемента заменяет
+ * старую через replace, так что ключ сортировки элемента внутри множества никогда не меняется.
+ */
+public class VehicleCollection implements Iterable<Vehicle> {
+    private final ConcurrentSkipListSet<Vehicle> vehicles = new ConcurrentSkipListSet<>();
+    private final LongObjectMap<Vehicle> byId = new LongObjectMap<>();
+    private final HashIndex<String> byUserLogin = new HashIndex<>(Vehicle::getUserLogin);
+    private final HashIndex<Integer> byNumberOfWheels = new HashIndex<>(Vehicle::getNumberOfWheels);
+    private final PartitionedSortedIndex<String> byUserEnginePower =
+            new PartitionedSortedIndex<>(Vehicle::getUserLogin, Vehicle::getEnginePower);
+    private final CountingIndex enginePowerCounts = new CountingIndex(v -> v.getEnginePower() != null, Vehicle::getEnginePower);
+    private final CountingIndex numberOfWheelsCounts = new CountingIndex(v -> true, Vehicle::getNumberOfWheels);
+    private final List<VehicleIndex> indexes = List.of(byUserLogin, byNumberOfWheels, byUserEnginePower,
+            enginePowerCounts, numberOfWheelsCounts);
+    /**
+     * Начиная с какого размера добавление в пустую коллекцию строит множество и индексы параллельно
+     */
+    private static final int PARALLEL_LOAD_THRESHOLD = 10_000;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+    private volatile int size;
+    private volatile LocalDateTime initDate;
+
+    /**
+     * Добавляет элемент. Элемент с тем же id заменяется.
+     */
+    public boolean add(Vehicle vehicle) {
+        writeLock.lock();
+        try {
+            return addLocked(vehicle);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean addLocked(Vehicle vehicle) {
+        Vehicle previous = byId.put(vehicle.getId(), vehicle);
+        if (previous != null) {
+            vehicles.remove(previous);
+            unindex(previous);
+        }
+        vehicles.add(vehicle);
+        index(vehicle);
+        size = byId.size();
+        return true;
+    }
+
+    private Vehicle removeLocked(long id) {
+        Vehicle vehicle = byId.remove(id);
+        if (vehicle != null) {
+            vehicles.remove(vehicle);
+            unindex(vehicle);
+            size = byId.size();
+        }
+        return vehicle;
+    }
+
+    private void index(Vehicle vehicle) {
+        for (VehicleIndex index : indexes) {
+            index.add(vehicle);
+        }
+    }
+
+    private void unindex(Vehicle vehicle) {
+        for (VehicleIndex index : indexes) {
+            index.remove(vehicle);
+        }
+    }
+
+    /**
+     * Добавляет элементы. В пустую коллекцию большое количество элементов с различными id добавляется
+     * параллельно: множество, индекс по id и каждый вторичный индекс заполняются в своём потоке.
+     * Быстрее всего, если элементы уже упорядочены, как в коллекции (например, взяты из снимка).
+     */
+    public void addAll(Collection<Vehicle> added) {
+        writeLock.lock();
+        try {
+            if (size == 0 && added.size() >= PARALLEL_LOAD_THRESHOLD && addAllInParallel(added)) {
+                return;
+            }
+            for (Vehicle vehicle : added) {
+                addLocked(vehicle);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Заполняет пустую коллекцию параллельно. Если среди элементов есть повторяющиеся id, откатывает
+     * заполнение и возвращает false: тогда элементы добавляются по одному с заменой.
+     */
+    private boolean addAllInParallel(Collection<Vehicle> added) {
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        tasks.add(CompletableFuture.runAsync(() -> vehicles.addAll(added)));
+        for (VehicleIndex index : indexes) {
+            tasks.add(CompletableFuture.runAsync(() -> {
+                for (Vehicle vehicle : added) {
+                    index.add(vehicle);
+                }
+            }));
+        }
+        for (Vehicle vehicle : added) {
+            byId.put(vehicle.getId(), vehicle);
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+
+        if (byId.size() != added.size()) {
+            vehicles.clear();
+            byId.clear();
+            for (VehicleIndex index : indexes) {
+                index.clear();
+            }
+            return false;
+        }
+        size = byId.size();
+        return true;
+    }
+
+    /**
+     * Возвращает элемент с данным id или null
+     */
+    public Vehicle get(long id) {
+        readLock.lock();
+        try {
+            return byId.get(id);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Удаляет элемент с данным id и возвращает его или null, если такого нет
+     */
+    public Vehicle remove(long id) {
+        writeLock.lock();
+        try {
+            return removeLocked(id);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Удаляет элементы с данными id одной операцией
+     */
+    public void removeAll(long[] ids) {
+        writeLock.lock();
+        try {
+            for (long id : ids) {
+                removeLocked(id);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @param updated Новая версия элемента с тем же id
+     * Заменяет элемент с id данного на новую версию. Старый экземпляр не изменяется,
+     * поэтому смена полей, по которым упорядочена коллекция, не нарушает порядок.
+     * Возвращает false, если элемента с таким id уже нет.
+     */
+    public boolean replace(Vehicle updated) {
+        writeLock.lock();
+        try {
+            if (removeLocked(updated.getId()) == null) {
+                return false;
+            }
+            return addLocked(updated);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Возвращает элементы данного пользователя в порядке сортировки коллекции
+     */
+    public List<Vehicle> getByUserLogin(String userLogin) {
+        List<Vehicle> result;
+        readLock.lock();
+        try {
+            result = byUserLogin.get(userLogin);
+        } finally {
+            readLock.unlock();
+        }
+        return sorted(result);
+    }
+
+    /**
+     * Возвращает элементы с данным количеством колёс в порядке сортировки коллекции
+     */
+    public List<Vehicle> getByNumberOfWheels(int numberOfWheels) {
+        List<Vehicle> result;
+        readLock.lock();
+        try {
+            result = byNumberOfWheels.get(numberOfWheels);
+        } finally {
+            readLock.unlock();
+        }
+        return sorted(result);
+    }
+
+    /**
+     * Возвращает элементы пользователя с мощностью двигателя меньше заданной
+     */
+    public List<Vehicle> getLowerEnginePower(long power, String userLogin) {
+        readLock.lock();
+        try {
+            return byUserEnginePower.lessThan(userLogin, power);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Передаёт каждое значение мощности двигателя из отрезка [from, to] вместе с количеством элементов
+     * в порядке возрастания мощности
+     */
+    public void forEachEnginePowerGroup(long from, long to, LongCountMap.LongLongConsumer action) {
+        snapshot(enginePowerCounts).forEachInRange(from, to, action);
+    }
+
+    /**
+     * Количество элементов с мощностью двигателя из отрезка [from, to]
+     */
+    public long countEnginePowerInRange(long from, long to) {
+        readLock.lock();
+        try {
+            return enginePowerCounts.getCounts().countInRange(from, to);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Передаёт каждое значение количества колёс вместе с числом элементов в порядке возрастания
+     */
+    public void forEachNumberOfWheels(LongCountMap.LongLongConsumer action) {
+        snapshot(numberOfWheelsCounts).forEach(action);
+    }
+
+    private LongCountMap snapshot(CountingIndex index) {
+        readLock.lock();
+        try {
+            return index.getCounts().copy();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private static List<Vehicle> sorted(List<Vehicle> list) {
+        list.sort(null);
+        return list;
+    }
+
+    /**
+     * Очищает коллекцию и обновляет дату инициализации
+     */
+    public void clear() {
+        writeLock.lock();
+        try {
+            vehicles.clear();
+            byId.clear();
+            for (VehicleIndex index : indexes) {
+                index.clear();
+            }
+            size = 0;
+            initDate = LocalDateTime.now();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Наименьший элемент или null, если коллекция пуста
+     */
+    public Vehicle first() {
+        try {
+            return vehicles.first();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Наибольший элемент или null, если коллекция пуста
+     */
+    public Vehicle last() {
+        try {
+            return vehicles.last();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public LocalDateTime getInitDate() {
+        return initDate;
+    }
+
+    /**
+     * Имя класса, в котором хранятся элементы
+     */
+    public String getCollectionType() {
+        return vehicles.getClass().getName();
+    }
+
+    /**
+     * Слабо согласованный перебор без блокировок: изменения, сделанные во время перебора, могут быть
+     * видны или не видны, но перебор никогда не падает и не блокирует запись
+     */
+    @Override
+    public Iterator<Vehicle> iterator() {
+        return Collections.unmodifiableSet(vehicles).iterator();
+    }
+}
@@ -0,0 +1,14 @@
+package src.collection;
+
+import src.model.Vehicle;
+
+/**
+ * Вспомогательная структура над коллекцией, которую VehicleCollection обновляет при каждом изменении
+ */
+public interface VehicleIndex {
+    void add(Vehicle vehicle);
+
+    void remove(Vehicle vehicle);
+
+    void clear();
+}
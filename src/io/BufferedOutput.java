@@ -0,0 +1,63 @@
+package src.io;
+
+import src.model.Vehicle;
+
+import java.io.PrintStream;
+
+/**
+ * Буферизованный вывод больших объёмов текста.
+ * Текст собирается в переиспользуемый StringBuilder и отправляется в поток кусками по CHUNK_SIZE символов,
+ * поэтому весь вывод команды никогда не хранится в памяти целиком, а поток сбрасывается редко.
+ * Текст кодируется самим PrintStream, то есть в той же кодировке, что и остальной вывод сеанса.
+ */
+public class BufferedOutput {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final PrintStream stream;
+    private final StringBuilder buffer = new StringBuilder(CHUNK_SIZE + 1024);
+
+    public BufferedOutput(PrintStream stream) {
+        this.stream = stream;
+    }
+
+    public BufferedOutput append(CharSequence text) {
+        buffer.append(text);
+        return drainIfFull();
+    }
+
+    /**
+     * Дописывает строку и перевод строки
+     */
+    public BufferedOutput println(CharSequence text) {
+        buffer.append(text).append(System.lineSeparator());
+        return drainIfFull();
+    }
+
+    /**
+     * Дописывает строковое представление элемента и перевод строки, не создавая промежуточных строк
+     */
+    public BufferedOutput println(Vehicle vehicle) {
+        vehicle.appendTo(buffer).append(System.lineSeparator());
+        return drainIfFull();
+    }
+
+    private BufferedOutput drainIfFull() {
+        if (buffer.length() >= CHUNK_SIZE) {
+            drain();
+        }
+        return this;
+    }
+
+    private void drain() {
+        stream.append(buffer);
+        buffer.setLength(0);
+    }
+
+    /**
+     * Отправляет накопленный текст в поток и сбрасывает его
+     */
+    public void flush() {
+        drain();
+        stream.flush();
+    }
+}
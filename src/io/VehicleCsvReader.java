@@ -0,0 +1,260 @@
+package src.io;
+
+import src.model.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Потоковый разбор файла элементов в формате data.csv:
+ * первая строка - дата инициализации коллекции, далее строки
+ * {@code id,name,x,y,dd.MM.yyyy HH:mm:ss,enginePower,wheels,TYPE,FUEL}.
+ * <p>
+ * Текст читается блоками в массив символов, поля выделяются сканированием строки без split и регулярных
+ * выражений, числа и даты разбираются прямо из символов. Поле в кавычках может содержать запятые,
+ * переводы строк и удвоенные кавычки. Пустые тип и топливо означают null;
+ * мощность обязательна и должна быть больше 0, как в Vehicle.
+ */
+public class VehicleCsvReader implements Closeable {
+    private static final int FIELDS = 9;
+    private static final VehicleType[] VEHICLE_TYPES = VehicleType.values();
+    private static final FuelType[] FUEL_TYPES = FuelType.values();
+
+    private final Reader reader;
+    private final char[] buffer = new char[64 * 1024];
+    private int bufferPosition;
+    private int bufferLimit;
+
+    private char[] line = new char[256];
+    private int lineLength;
+    private final int[] fieldStarts = new int[FIELDS];
+    private final int[] fieldEnds = new int[FIELDS];
+    private int fieldCount;
+    private long lineNumber;
+
+    public VehicleCsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @param consumer Получатель элементов
+     * Читает файл до конца. Возвращает дату инициализации из первой строки или null, если её нет.
+     * При ошибке формата бросает IllegalArgumentException с номером строки.
+     */
+    public LocalDateTime read(Consumer<Vehicle> consumer) throws IOException {
+        LocalDateTime initDate = null;
+        boolean first = true;
+        while (readLine()) {
+            if (fieldCount == 1 && fieldStarts[0] == fieldEnds[0]) {
+                continue;
+            }
+            if (first && fieldCount == 1) {
+                initDate = parseDate(fieldStarts[0], fieldEnds[0]);
+            } else {
+                consumer.accept(parseVehicle());
+            }
+            first = false;
+        }
+        return initDate;
+    }
+
+    private Vehicle parseVehicle() {
+        if (fieldCount != FIELDS) {
+            throw error("ожидалось " + FIELDS + " полей, найдено " + fieldCount);
+        }
+        long id = parseLong(0);
+        String name = new String(line, fieldStarts[1], fieldEnds[1] - fieldStarts[1]);
+        int x = parseInt(2);
+        int y = parseInt(3);
+        LocalDateTime creationDate = parseDate(fieldStarts[4], fieldEnds[4]);
+        long enginePower = parseLong(5);
+        if (enginePower <= 0) {
+            throw error("мощность двигателя должна быть больше 0");
+        }
+        int numberOfWheels = parseInt(6);
+        VehicleType type = parseEnum(7, VEHICLE_TYPES);
+        FuelType fuelType = parseEnum(8, FUEL_TYPES);
+        return new Vehicle(id, name, new Coordinates(x, y), creationDate, enginePower, numberOfWheels, type, fuelType);
+    }
+
+    private long parseLong(int field) {
+        int position = fieldStarts[field];
+        int end = fieldEnds[field];
+        boolean negative = position < end && line[position] == '-';
+        if (negative) {
+            position++;
+        }
+        if (position == end || end - position > 18) {
+            throw error("неверное число в поле " + (field + 1));
+        }
+        long value = 0;
+        for (; position < end; position++) {
+            int digit = line[position] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("неверное число в поле " + (field + 1));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Разбирает поле как parseLong, но отвергает значения вне диапазона int, а не обрезает их
+     */
+    private int parseInt(int field) {
+        long value = parseLong(field);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw error("число вне диапазона int в поле " + (field + 1));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Разбирает дату вида dd.MM.yyyy HH:mm:ss по фиксированным позициям
+     */
+    private LocalDateTime parseDate(int start, int end) {
+        if (end - start != 19 || line[start + 2] != '.' || line[start + 5] != '.' || line[start + 10] != ' '
+                || line[start + 13] != ':' || line[start + 16] != ':') {
+            throw error("ожидалась дата вида dd.MM.yyyy HH:mm:ss");
+        }
+        try {
+            return LocalDateTime.of(digits(start + 6, 4), digits(start + 3, 2), digits(start, 2),
+                    digits(start + 11, 2), digits(start + 14, 2), digits(start + 17, 2));
+        } catch (DateTimeException e) {
+            throw error(e.getMessage());
+        }
+    }
+
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("ожидалась дата вида dd.MM.yyyy HH:mm:ss");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private <E extends Enum<E>> E parseEnum(int field, E[] values) {
+        int start = fieldStarts[field];
+        int length = fieldEnds[field] - start;
+        if (length == 0) {
+            return null;
+        }
+        for (E value : values) {
+            String name = value.name();
+            if (name.length() == length && matchesIgnoreCase(name, start)) {
+                return value;
+            }
+        }
+        throw error("неизвестное значение " + new String(line, start, length) + " в поле " + (field + 1));
+    }
+
+    private boolean matchesIgnoreCase(String name, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toUpperCase(line[start + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Читает следующую запись в line и размечает поля. Возвращает false в конце файла.
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        fieldCount = 0;
+        int fieldStart = 0;
+        boolean quoted = false;
+        boolean any = false;
+        while (true) {
+            if (bufferPosition == bufferLimit) {
+                bufferLimit = reader.read(buffer, 0, buffer.length);
+                bufferPosition = 0;
+                if (bufferLimit <= 0) {
+                    bufferLimit = 0;
+                    if (!any) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+            char c = buffer[bufferPosition++];
+            any = true;
+            if (quoted) {
+                if (c == '"') {
+                    if (peek() == '"') {
+                        bufferPosition++;
+                        append(c);
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    append(c);
+                }
+            } else if (c == '"' && lineLength == fieldStart) {
+                quoted = true;
+            } else if (c == ',') {
+                endField(fieldStart);
+                fieldStart = lineLength;
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                append(c);
+            }
+        }
+        lineNumber++;
+        endField(fieldStart);
+        return true;
+    }
+
+    private int peek() throws IOException {
+        if (bufferPosition == bufferLimit) {
+            bufferLimit = reader.read(buffer, 0, buffer.length);
+            bufferPosition = 0;
+            if (bufferLimit <= 0) {
+                bufferLimit = 0;
+                return -1;
+            }
+        }
+        return buffer[bufferPosition];
+    }
+
+    private void append(char c) {
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = c;
+    }
+
+    private void endField(int fieldStart) {
+        if (fieldCount == FIELDS) {
+            // лишние поля только считаются, чтобы сообщить о неверной строке
+            fieldCount++;
+            return;
+        }
+        if (fieldCount > FIELDS) {
+            return;
+        }
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = lineLength;
+        fieldCount++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Строка " + lineNumber + ": " + message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
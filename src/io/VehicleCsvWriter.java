@@ -0,0 +1,127 @@
+package src.io;
+
+import src.model.Vehicle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+
+/**
+ * Потоковая запись элементов в формате data.csv (см. VehicleCsvReader).
+ * Строки собираются в общем буфере и сбрасываются в Writer блоками; даты и числа
+ * дописываются в буфер напрямую, без форматтеров. Имя, содержащее запятую, кавычку
+ * или перевод строки, заключается в кавычки.
+ */
+public class VehicleCsvWriter implements Closeable {
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private final Writer writer;
+    private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 1024);
+    private char[] chunk = new char[FLUSH_THRESHOLD + 1024];
+
+    public VehicleCsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Записывает первую строку файла - дату инициализации коллекции
+     */
+    public void writeHeader(LocalDateTime initDate) throws IOException {
+        appendDate(initDate == null ? LocalDateTime.now() : initDate);
+        buffer.append('\n');
+        flushIfFull();
+    }
+
+    public void write(Vehicle vehicle) throws IOException {
+        buffer.append(vehicle.getId()).append(',');
+        appendQuoted(vehicle.getName());
+        buffer.append(',').append(vehicle.getCoordinates().getX())
+                .append(',').append(vehicle.getCoordinates().getY())
+                .append(',');
+        appendDate(vehicle.getCreationDate());
+        buffer.append(',').append(vehicle.getEnginePower())
+                .append(',').append(vehicle.getNumberOfWheels())
+                .append(',');
+        if (vehicle.getType() != null) {
+            buffer.append(vehicle.getType().name());
+        }
+        buffer.append(',');
+        if (vehicle.getFuelType() != null) {
+            buffer.append(vehicle.getFuelType().name());
+        }
+        buffer.append('\n');
+        flushIfFull();
+    }
+
+    private void appendQuoted(String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            buffer.append(value);
+            return;
+        }
+        buffer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                buffer.append('"');
+            }
+            buffer.append(c);
+        }
+        buffer.append('"');
+    }
+
+    /**
+     * Дописывает дату в виде dd.MM.yyyy HH:mm:ss
+     */
+    private void appendDate(LocalDateTime date) {
+        appendTwoDigits(date.getDayOfMonth());
+        buffer.append('.');
+        appendTwoDigits(date.getMonthValue());
+        buffer.append('.');
+        int year = date.getYear();
+        appendTwoDigits(year / 100);
+        appendTwoDigits(year % 100);
+        buffer.append(' ');
+        appendTwoDigits(date.getHour());
+        buffer.append(':');
+        appendTwoDigits(date.getMinute());
+        buffer.append(':');
+        appendTwoDigits(date.getSecond());
+    }
+
+    private void appendTwoDigits(int value) {
+        buffer.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private void flushIfFull() throws IOException {
+        if (buffer.length() >= FLUSH_THRESHOLD) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        int length = buffer.length();
+        if (chunk.length < length) {
+            chunk = new char[length];
+        }
+        buffer.getChars(0, length, chunk, 0);
+        writer.write(chunk, 0, length);
+        buffer.setLength(0);
+    }
+
+    public void flush() throws IOException {
+        drain();
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        writer.close();
+    }
+}
@@ -0,0 +1,302 @@
+package src.io;
+
+import src.model.*;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Двоичный снимок коллекции для быстрого запуска.
+ * <p>
+ * Снимок хранится по столбцам: сначала заголовок (сигнатура, версия формата, отметка изменений базы,
+ * количество элементов и размеры словарей), затем словари имён и логинов, затем массивы полей.
+ * Имена и логины хранятся номерами в словаре, типы - порядковыми номерами (-1 для null),
+ * даты - секундами от начала эпохи и наносекундами внутри секунды, без потери точности. Снимок пишется во временный файл и заменяет старый
+ * переименованием, поэтому при сбое остаётся предыдущий целый снимок.
+ */
+public class VehicleSnapshot {
+    private static final int MAGIC = 0x56534E50;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+    /**
+     * Байт на элемент во всех столбцах: id, имя, x, y, секунды и наносекунды даты, мощность, колёса,
+     * логин, тип и топливо
+     */
+    private static final int ROW_SIZE = 8 + 4 + 4 + 4 + 8 + 4 + 8 + 4 + 4 + 1 + 1;
+
+    /**
+     * Содержимое снимка
+     * @param mark Отметка изменений базы: все изменения транзакций с меньшим id в снимке учтены
+     * @param vehicles Элементы
+     */
+    public record Contents(long mark, List<Vehicle> vehicles) {
+    }
+
+    /**
+     * @param vehicles Элементы коллекции
+     * @param mark Отметка изменений базы, взятая до перебора элементов
+     * @param path Файл снимка
+     * Записывает снимок. Возвращает количество записанных элементов.
+     */
+    public static int write(Iterable<Vehicle> vehicles, long mark, Path path) {
+        Columns columns = new Columns();
+        for (Vehicle vehicle : vehicles) {
+            columns.add(vehicle);
+        }
+
+        byte[][] names = columns.names.encoded();
+        byte[][] logins = columns.logins.encoded();
+        int count = columns.size;
+        long size = HEADER_SIZE + dictionarySize(names) + dictionarySize(logins)
+                + (long) count * ROW_SIZE;
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putLong(mark)
+                    .putInt(count)
+                    .putInt(names.length)
+                    .putInt(logins.length);
+            putDictionary(buffer, names);
+            putDictionary(buffer, logins);
+
+            buffer.asLongBuffer().put(columns.ids, 0, count);
+            buffer.position(buffer.position() + count * 8);
+            putInts(buffer, columns.nameIndexes, count);
+            putInts(buffer, columns.xs, count);
+            putInts(buffer, columns.ys, count);
+            buffer.asLongBuffer().put(columns.creationSeconds, 0, count);
+            buffer.position(buffer.position() + count * 8);
+            putInts(buffer, columns.creationNanos, count);
+            buffer.asLongBuffer().put(columns.enginePowers, 0, count);
+            buffer.position(buffer.position() + count * 8);
+            putInts(buffer, columns.numbersOfWheels, count);
+            putInts(buffer, columns.loginIndexes, count);
+            buffer.put(columns.types, 0, count);
+            buffer.put(columns.fuelTypes, 0, count);
+            buffer.force();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Читает снимок, отображая файл в память. Возвращает null, если снимка нет, он другого формата
+     * или повреждён (обрезан, размеры не сходятся с длиной файла, номера вне словарей): тогда
+     * коллекция загружается из базы.
+     */
+    public static Contents read(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long mark = buffer.getLong();
+            int count = buffer.getInt();
+            int nameCount = buffer.getInt();
+            int loginCount = buffer.getInt();
+            // каждая строка словаря занимает не меньше 4 байт длины
+            if (count < 0 || nameCount < 0 || loginCount < 0
+                    || 4L * nameCount + 4L * loginCount > buffer.remaining()) {
+                return null;
+            }
+            String[] names = getDictionary(buffer, nameCount);
+            String[] logins = getDictionary(buffer, loginCount);
+            if (buffer.remaining() != (long) count * ROW_SIZE) {
+                return null;
+            }
+
+            long[] ids = new long[count];
+            buffer.asLongBuffer().get(ids);
+            buffer.position(buffer.position() + count * 8);
+            int[] nameIndexes = getInts(buffer, count);
+            int[] xs = getInts(buffer, count);
+            int[] ys = getInts(buffer, count);
+            long[] creationSeconds = new long[count];
+            buffer.asLongBuffer().get(creationSeconds);
+            buffer.position(buffer.position() + count * 8);
+            int[] creationNanos = getInts(buffer, count);
+            long[] enginePowers = new long[count];
+            buffer.asLongBuffer().get(enginePowers);
+            buffer.position(buffer.position() + count * 8);
+            int[] numbersOfWheels = getInts(buffer, count);
+            int[] loginIndexes = getInts(buffer, count);
+            byte[] types = new byte[count];
+            buffer.get(types);
+            byte[] fuelTypes = new byte[count];
+            buffer.get(fuelTypes);
+
+            VehicleType[] vehicleTypes = VehicleType.values();
+            FuelType[] fuelTypeValues = FuelType.values();
+            // столбцы уже в памяти, элементы собираются из них независимо друг от друга
+            Vehicle[] vehicles = new Vehicle[count];
+            IntStream.range(0, count).parallel().forEach(i -> {
+                Vehicle vehicle = new Vehicle(ids[i], nameIndexes[i] < 0 ? null : names[nameIndexes[i]],
+                        new Coordinates(xs[i], ys[i]), LocalDateTime.ofEpochSecond(creationSeconds[i], creationNanos[i], ZoneOffset.UTC), enginePowers[i], numbersOfWheels[i],
+                        types[i] < 0 ? null : vehicleTypes[types[i]], fuelTypes[i] < 0 ? null : fuelTypeValues[fuelTypes[i]]);
+                vehicle.setUserLogin(loginIndexes[i] < 0 ? null : logins[loginIndexes[i]]);
+                vehicles[i] = vehicle;
+            });
+            return new Contents(mark, Arrays.asList(vehicles));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | DateTimeException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long dictionarySize(byte[][] dictionary) {
+        long size = 0;
+        for (byte[] bytes : dictionary) {
+            size += 4 + bytes.length;
+        }
+        return size;
+    }
+
+    private static void putDictionary(ByteBuffer buffer, byte[][] dictionary) {
+        for (byte[] bytes : dictionary) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String[] getDictionary(ByteBuffer buffer, int size) {
+        String[] dictionary = new String[size];
+        for (int i = 0; i < size; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return dictionary;
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values, int count) {
+        buffer.asIntBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + count * 4);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    /**
+     * Словарь строк: каждой новой строке выдаётся следующий номер, null кодируется как -1
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int indexOf(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                indexes.put(value, index);
+                values.add(value);
+            }
+            return index;
+        }
+
+        byte[][] encoded() {
+            byte[][] encoded = new byte[values.size()][];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+            return encoded;
+        }
+    }
+
+    /**
+     * Растущие массивы полей элементов
+     */
+    private static class Columns {
+        private final Dictionary names = new Dictionary();
+        private final Dictionary logins = new Dictionary();
+        private int size;
+        private long[] ids = new long[1024];
+        private int[] nameIndexes = new int[1024];
+        private int[] xs = new int[1024];
+        private int[] ys = new int[1024];
+        private long[] creationSeconds = new long[1024];
+        private int[] creationNanos = new int[1024];
+        private long[] enginePowers = new long[1024];
+        private int[] numbersOfWheels = new int[1024];
+        private int[] loginIndexes = new int[1024];
+        private byte[] types = new byte[1024];
+        private byte[] fuelTypes = new byte[1024];
+
+        void add(Vehicle vehicle) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                nameIndexes = Arrays.copyOf(nameIndexes, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                creationSeconds = Arrays.copyOf(creationSeconds, capacity);
+                creationNanos = Arrays.copyOf(creationNanos, capacity);
+                enginePowers = Arrays.copyOf(enginePowers, capacity);
+                numbersOfWheels = Arrays.copyOf(numbersOfWheels, capacity);
+                loginIndexes = Arrays.copyOf(loginIndexes, capacity);
+                types = Arrays.copyOf(types, capacity);
+                fuelTypes = Arrays.copyOf(fuelTypes, capacity);
+            }
+            ids[size] = vehicle.getId();
+            nameIndexes[size] = names.indexOf(vehicle.getName());
+            xs[size] = vehicle.getCoordinates().getX();
+            ys[size] = vehicle.getCoordinates().getY();
+            creationSeconds[size] = vehicle.getCreationDate().toEpochSecond(ZoneOffset.UTC);
+            creationNanos[size] = vehicle.getCreationDate().getNano();
+            enginePowers[size] = vehicle.getEnginePower();
+            numbersOfWheels[size] = vehicle.getNumberOfWheels();
+            loginIndexes[size] = logins.indexOf(vehicle.getUserLogin());
+            types[size] = (byte) (vehicle.getType() == null ? -1 : vehicle.getType().ordinal());
+            fuelTypes[size] = (byte) (vehicle.getFuelType() == null ? -1 : vehicle.getFuelType().ordinal());
+            size++;
+        }
+    }
+}
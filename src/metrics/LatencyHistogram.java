@@ -0,0 +1,130 @@
+package src.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма длительностей в наносекундах с логарифмически-линейными корзинами, как в HdrHistogram:
+ * каждая степень двойки делится на SUB_BUCKETS равных корзин, поэтому относительная погрешность
+ * перцентиля не больше 1/SUB_BUCKETS (около 3%) во всём диапазоне от наносекунд до часов.
+ * Запись выполняется атомарными операциями, без блокировок и выделения памяти.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Старший разряд самого большого различимого значения: 2^42 нс - больше часа.
+     * Более долгие записи попадают в последнюю корзину, но максимум хранится точно.
+     */
+    private static final int MAX_EXPONENT = 42;
+    private static final long MAX_TRACKABLE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos Длительность в наносекундах; отрицательные считаются нулём
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(Math.min(value, MAX_TRACKABLE)));
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Начинает замер, который записывается в гистограмму вызовом close(). Вызывающий закрывает замер
+     * в finally, чтобы длительность записывалась и при исключении
+     */
+    public Sample start() {
+        return new Sample(this, System.nanoTime());
+    }
+
+    /**
+     * Значения меньше SUB_BUCKETS хранятся точно, дальше каждый разряд делится на SUB_BUCKETS корзин
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Наибольшее значение, попадающее в корзину index
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Копия текущего состояния. Запись во время копирования может попасть в снимок частично,
+     * поэтому количество считается по скопированным корзинам.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(count, sum.get(), max.get(), copy);
+    }
+
+    /**
+     * Замер длительности от start() до close()
+     */
+    public static final class Sample implements AutoCloseable {
+        private final LatencyHistogram histogram;
+        private final long start;
+
+        private Sample(LatencyHistogram histogram, long start) {
+            this.histogram = histogram;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    public record Snapshot(long count, long sumNanos, long maxNanos, long[] counts) {
+        /**
+         * @param quantile Доля от 0 до 1
+         * Возвращает значение, не меньше которого quantile записей: верхнюю границу корзины, но не больше максимума
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // в последнюю корзину попадают и значения больше MAX_TRACKABLE
+                    return i == counts.length - 1 ? maxNanos : Math.min(upperBoundOf(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) sumNanos / count;
+        }
+    }
+}
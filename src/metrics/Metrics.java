@@ -0,0 +1,113 @@
+package src.metrics;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики процесса: гистограммы длительности команд и методов Repository, времени получения
+ * соединения из пула и счётчики прочитанных и записанных строк таблицы vehicle.
+ * Общие для всех сеансов; выводятся командой stats и отдаются MetricsServer в текстовом формате Prometheus.
+ */
+public final class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, LatencyHistogram> COMMANDS = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> REPOSITORY = new ConcurrentHashMap<>();
+
+    public static final LatencyHistogram POOL_ACQUIRE = new LatencyHistogram();
+    public static final LongAdder ROWS_READ = new LongAdder();
+    public static final LongAdder ROWS_WRITTEN = new LongAdder();
+
+    private Metrics() {
+    }
+
+    /**
+     * Гистограмма длительности команды интерпретатора
+     */
+    public static LatencyHistogram command(String name) {
+        return COMMANDS.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Гистограмма длительности метода Repository, включая получение и возврат соединения
+     */
+    public static LatencyHistogram repository(String method) {
+        return REPOSITORY.computeIfAbsent(method, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Выводит таблицу p50/p99/max по командам, методам Repository и пулу, затем счётчики строк
+     */
+    public static void print(PrintStream out) {
+        out.printf("%-40s %10s %10s %10s %10s%n", "", "count", "p50, ms", "p99, ms", "max, ms");
+        printGroup(out, "Команды:", COMMANDS);
+        printGroup(out, "Repository:", REPOSITORY);
+        out.println("Пул соединений:");
+        printRow(out, "getConnection", POOL_ACQUIRE.snapshot());
+        out.println("Строк прочитано: " + ROWS_READ.sum() + ", записано: " + ROWS_WRITTEN.sum());
+    }
+
+    private static void printGroup(PrintStream out, String title, Map<String, LatencyHistogram> histograms) {
+        out.println(title);
+        new TreeMap<>(histograms).forEach((name, histogram) -> printRow(out, name, histogram.snapshot()));
+    }
+
+    private static void printRow(PrintStream out, String name, LatencyHistogram.Snapshot snapshot) {
+        out.printf("  %-38s %10d %10.3f %10.3f %10.3f%n", name, snapshot.count(),
+                snapshot.percentile(0.5) / 1e6, snapshot.percentile(0.99) / 1e6, snapshot.maxNanos() / 1e6);
+    }
+
+    /**
+     * Все метрики в текстовом формате Prometheus (version 0.0.4): гистограммы - как summary
+     * с квантилями, суммой и количеством в секундах
+     */
+    public static String prometheus() {
+        StringBuilder text = new StringBuilder(4096);
+        summaries(text, "lab7_command_duration_seconds", "Длительность команд интерпретатора", "command", COMMANDS);
+        summaries(text, "lab7_repository_duration_seconds", "Длительность методов Repository", "method", REPOSITORY);
+        summaries(text, "lab7_pool_acquire_seconds", "Время получения соединения из пула", null,
+                Map.of("", POOL_ACQUIRE));
+        counter(text, "lab7_rows_read_total", "Строки vehicle, прочитанные из базы", ROWS_READ.sum());
+        counter(text, "lab7_rows_written_total", "Строки vehicle, записанные в базу", ROWS_WRITTEN.sum());
+        return text.toString();
+    }
+
+    private static void summaries(StringBuilder text, String metric, String help, String label,
+                                  Map<String, LatencyHistogram> histograms) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(metric).append(" summary\n");
+        new TreeMap<>(histograms).forEach((name, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            String labels = label == null ? "" : label + "=\"" + escape(name) + "\"";
+            for (double quantile : QUANTILES) {
+                sample(text, metric, labels, "quantile=\"" + quantile + "\"", snapshot.percentile(quantile) / 1e9);
+            }
+            sample(text, metric + "_sum", labels, null, snapshot.sumNanos() / 1e9);
+            text.append(metric).append("_count").append(braces(labels)).append(' ').append(snapshot.count()).append('\n');
+        });
+    }
+
+    private static void sample(StringBuilder text, String metric, String labels, String extra, double value) {
+        String all = extra == null ? labels : labels.isEmpty() ? extra : labels + "," + extra;
+        text.append(metric).append(braces(all)).append(' ')
+                .append(String.format(Locale.ROOT, "%.9f", value)).append('\n');
+    }
+
+    private static void counter(StringBuilder text, String metric, String help, long value) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(metric).append(" counter\n");
+        text.append(metric).append(' ').append(value).append('\n');
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,61 @@
+package src.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP-сервер на локальном адресе, отдающий Metrics.prometheus() по пути /metrics.
+ * Включается свойством metrics.port; слушает только 127.0.0.1, чтобы метрики не были видны снаружи.
+ */
+public class MetricsServer implements AutoCloseable {
+    static final int PORT = Integer.getInteger("metrics.port", 0);
+
+    private final HttpServer server;
+
+    public MetricsServer(int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        server.createContext("/metrics", MetricsServer::handle);
+        server.start();
+    }
+
+    /**
+     * Сервер на порту metrics.port или null, если свойство не задано
+     */
+    public static MetricsServer fromSystemProperties() {
+        return PORT > 0 ? new MetricsServer(PORT) : null;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
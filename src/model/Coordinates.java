@@ -49,6 +49,10 @@ public class Coordinates {
 
     @Override
     public String toString() {
-        return "Coordinates{" + "x=" + x + ", y=" + y + '}';
+        return appendTo(new StringBuilder(32)).toString();
+    }
+
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append("Coordinates{x=").append(x).append(", y=").append(y).append('}');
     }
 }
\ No newline at end of file
@@ -1,13 +1,13 @@
 package src.model;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.HashSet;
 import java.io.BufferedReader;
 import java.util.Objects;
 import java.util.Scanner;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -25,14 +25,21 @@ public class Vehicle implements Comparable<Vehicle> {
     private String userLogin;
 
 
-    private static Set<Long> usedIds = new HashSet<Long>(); // хранилище уже использованных id
+    private static final AtomicLong lastId = new AtomicLong(-1); // наибольший выданный или встреченный id
 
     /**
-     * @param id id, которое нужно добавить в множество использованных
-     *           Добавляет id в список использованных
+     * @param id id, которое нужно отметить как использованное
+     *           Сдвигает счётчик так, чтобы следующие сгенерированные id были больше данного
      */
     public static void updateId(Long id){
-        usedIds.add(id);
+        if (id == null) {
+            return;
+        }
+        // запись в общий счётчик только если id действительно больше: при массовой загрузке из нескольких
+        // потоков большинство вызовов ограничивается чтением
+        long current;
+        while (id > (current = lastId.get()) && !lastId.compareAndSet(current, id)) {
+        }
     }
 
     // Конструктор с параметрами
@@ -51,6 +58,7 @@ public class Vehicle implements Comparable<Vehicle> {
 
     public Vehicle(Long id, String name, Coordinates coordinates, LocalDateTime creationDate, Long enginePower, int numberOfWheels, VehicleType type, FuelType fuelType) {
         this.id = id;
+        updateId(id);
         this.name = name;
         this.coordinates = coordinates;
         this.creationDate = creationDate;
@@ -65,20 +73,26 @@ public class Vehicle implements Comparable<Vehicle> {
     }
 
     /**
-     * Генератор новых уникальных id
+     * Создаёт копию элемента, которую можно изменять, не затрагивая элемент в коллекции
+     */
+    public Vehicle(Vehicle other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.coordinates = other.coordinates == null ? null
+                : new Coordinates(other.coordinates.getX(), other.coordinates.getY());
+        this.creationDate = other.creationDate;
+        this.enginePower = other.enginePower;
+        this.numberOfWheels = other.numberOfWheels;
+        this.type = other.type;
+        this.fuelType = other.fuelType;
+        this.userLogin = other.userLogin;
+    }
+
+    /**
+     * Генератор новых уникальных id: потокобезопасный монотонный счётчик, O(1) на каждый id
      */
-    // Метод для генерации уникального id
     private Long generateId() {
-//        Long newId = null;
-//        do {
-//            newId = (long) (Math.random() * Long.MAX_VALUE);
-//        } while (newId <= 0 || usedIds.contains(newId));
-        Long newId = 0L;
-        while (usedIds.contains(newId)){
-            newId += 1L;
-        }
-        usedIds.add(newId);
-        return newId;
+        return lastId.incrementAndGet();
     }
 
     // Геттеры и сеттеры
@@ -90,6 +104,7 @@ public class Vehicle implements Comparable<Vehicle> {
             throw new IllegalArgumentException("ID cannot be null or empty");
         }
         this.id = id;
+        updateId(id);
     }
     public String getName() {
         return name;
@@ -161,7 +176,8 @@ public class Vehicle implements Comparable<Vehicle> {
 
     /**
      * Реализует сравнение элементов для возможности сортировки
-     * Сравнение происходит по полю enginePower, при его совпадении - по дате создания
+     * Сравнение происходит по полю enginePower, при его совпадении - по дате создания, затем по id,
+     * чтобы разные элементы с одинаковыми мощностью и датой не считались равными в TreeSet
      */
     @Override
     public int compareTo(Vehicle o) {
@@ -169,6 +185,9 @@ public class Vehicle implements Comparable<Vehicle> {
         if (result == 0){
             result = this.getCreationDate().compareTo(o.getCreationDate());
         }
+        if (result == 0){
+            result = this.getId().compareTo(o.getId());
+        }
         return result;
     }
 
@@ -177,72 +196,84 @@ public class Vehicle implements Comparable<Vehicle> {
      */
     @Override
     public String toString() {
-        return "Vehicle{" +
-                "id=" + id +
-                ", name='" + name + '\'' +
-                ", coordinates=" + coordinates +
-                ", creationDate=" + creationDate +
-                ", enginePower=" + enginePower +
-                ", numberOfWheels=" + numberOfWheels +
-                ", type=" + type +
-                ", fuelType=" + fuelType +
-                '}';
+        return appendTo(new StringBuilder(160)).toString();
+    }
+
+    /**
+     * Дописывает строковое представление экземпляра в builder без промежуточных строк
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        builder.append("Vehicle{id=").append(id)
+                .append(", name='").append(name).append('\'')
+                .append(", coordinates=");
+        if (coordinates == null) {
+            builder.append("null");
+        } else {
+            coordinates.appendTo(builder);
+        }
+        return builder.append(", creationDate=").append(creationDate)
+                .append(", enginePower=").append(enginePower)
+                .append(", numberOfWheels=").append(numberOfWheels)
+                .append(", type=").append(type)
+                .append(", fuelType=").append(fuelType)
+                .append('}');
     }
 
     /**
      * Изменяет значения полей класса, сохраняя генерируемые автоматически
+     * @param scanner Источник ввода
+     * @param out Поток для подсказок пользователю
      */
-    public static void modifyFromUser(Vehicle vehicle){
-        Scanner scanner = new Scanner(System.in);
+    public static void modifyFromUser(Vehicle vehicle, Scanner scanner, PrintStream out){
 
         //спросить что поменять 1.Название 2.Мощность
-        System.out.println("Что хотите поменять?(варианты:1 - имя, 2 - координаты, 3 - мощность, 4-  число колес, 5 - тип, 6 - топливо) : ");
+        out.println("Что хотите поменять?(варианты:1 - имя, 2 - координаты, 3 - мощность, 4-  число колес, 5 - тип, 6 - топливо) : ");
         //здесь должно считываться слово в переменную change, обозначающее что мы хотим поменять
         int change = Integer.parseInt(scanner.nextLine());
         if (change == 1) {
-            System.out.println("Введите имя: ");
+            out.println("Введите имя: ");
             String name = "";
             while (name.isEmpty()) {
                 name = scanner.nextLine().trim();
                 if (name.isEmpty()) {
-                    System.out.println("Введите корректное значение. Поле не может быть пустым.");
+                    out.println("Введите корректное значение. Поле не может быть пустым.");
                 }
             }
             vehicle.setName(name);
         }
         else if (change == 2) {
             Integer coordX = null;
-            System.out.println("Введите координату X, X <= 970: ");
+            out.println("Введите координату X, X <= 970: ");
             try {
                 coordX = Integer.parseInt(scanner.nextLine());
             } catch (NumberFormatException e) {
-                System.out.println("Неправильный ввод: " + e.getMessage());
+                out.println("Неправильный ввод: " + e.getMessage());
             }
             while (coordX == null || coordX > 970) {
-                System.out.println("Ошибка! Попробуйте еще раз.");
-                System.out.println("Введите координату X, X <= 970: ");
+                out.println("Ошибка! Попробуйте еще раз.");
+                out.println("Введите координату X, X <= 970: ");
                 try {
                     coordX = Integer.parseInt(scanner.nextLine());
                 } catch (NumberFormatException e) {
-                    System.out.println("Неправильный ввод: " + e.getMessage());
+                    out.println("Неправильный ввод: " + e.getMessage());
                 }
             }
 
 
             Integer coordY = null;
-            System.out.println("Введите координату Y, Y > -988: ");
+            out.println("Введите координату Y, Y > -988: ");
             try {
                 coordY = Integer.parseInt(scanner.nextLine());
             } catch (NumberFormatException e) {
-                System.out.println("Неправильный ввод: " + e.getMessage());
+                out.println("Неправильный ввод: " + e.getMessage());
             }
             while (coordY == null || coordY <= -988) {
-                System.out.println("Ошибка! Попробуйте еще раз.");
-                System.out.println("Введите координату Y, Y > -988: ");
+                out.println("Ошибка! Попробуйте еще раз.");
+                out.println("Введите координату Y, Y > -988: ");
                 try {
                     coordY = Integer.parseInt(scanner.nextLine());
                 } catch (NumberFormatException e) {
-                    System.out.println("Неправильный ввод: " + e.getMessage());
+                    out.println("Неправильный ввод: " + e.getMessage());
                 }
             }
 
@@ -251,41 +282,41 @@ public class Vehicle implements Comparable<Vehicle> {
         }
         else if (change == 3) {
             Long enginePower = null;
-            System.out.println("Введите мощность двигателя: ");
+            out.println("Введите мощность двигателя: ");
             try {
                 String input = scanner.nextLine();
                 enginePower = Long.parseLong(input);
             } catch (NumberFormatException e) {
-                System.out.println("Неправильный ввод: " + e.getMessage());
+                out.println("Неправильный ввод: " + e.getMessage());
             }
             while (enginePower <= 0) {
-                System.out.println("Ошибка! Попробуйте еще раз.");
-                System.out.println("Введите мощность двигателя: ");
+                out.println("Ошибка! Попробуйте еще раз.");
+                out.println("Введите мощность двигателя: ");
                 try {
                     String input = scanner.nextLine();
                     if (Objects.equals(input, "")) break;
                     enginePower = Long.parseLong(input);
                 } catch (NumberFormatException e) {
-                    System.out.println("Неправильный ввод: " + e.getMessage());
+                    out.println("Неправильный ввод: " + e.getMessage());
                 }
             }
             vehicle.setEnginePower(enginePower);
         }
         else if (change == 4) {
             Integer numberOfWheels = null;
-            System.out.println("Введите количество колёс: ");
+            out.println("Введите количество колёс: ");
             try {
                 numberOfWheels = Integer.parseInt(scanner.nextLine());
             } catch (NumberFormatException e) {
-                System.out.println("Неправильный ввод: " + e.getMessage());
+                out.println("Неправильный ввод: " + e.getMessage());
             }
             while (numberOfWheels == null || numberOfWheels <= 0) {
-                System.out.println("Ошибка! Попробуйте еще раз.");
-                System.out.println("Введите количество колёс: ");
+                out.println("Ошибка! Попробуйте еще раз.");
+                out.println("Введите количество колёс: ");
                 try {
                     numberOfWheels = Integer.parseInt(scanner.nextLine());
                 } catch (NumberFormatException e) {
-                    System.out.println("Неправильный ввод: " + e.getMessage());
+                    out.println("Неправильный ввод: " + e.getMessage());
                 }
 
             }
@@ -294,19 +325,19 @@ public class Vehicle implements Comparable<Vehicle> {
         else if (change == 5) {
             VehicleType vehicleType = null;
             while (true) {
-                System.out.println("Возможные виды транспорта:");
+                out.println("Возможные виды транспорта:");
                 for (VehicleType VT : VehicleType.values()) {
-                    System.out.println(VT.name() + " ");
+                    out.println(VT.name() + " ");
                 }
-                System.out.println();
-                System.out.println("Введите вид транспорта: ");
+                out.println();
+                out.println("Введите вид транспорта: ");
                 try {
                     String input = scanner.nextLine();
                     if (Objects.equals(input, "")) break;
                     vehicleType = VehicleType.valueOf(input.toUpperCase());
                     break;
                 } catch (IllegalArgumentException e) {
-                    System.out.println("Ошибка! Попробуйте еще раз.");
+                    out.println("Ошибка! Попробуйте еще раз.");
                 }
             }
             vehicle.setType(vehicleType);
@@ -314,19 +345,19 @@ public class Vehicle implements Comparable<Vehicle> {
         else if (change == 6) {
             FuelType fuelType = null;
             while (true) {
-                System.out.println("Возможные варианты топлива:");
+                out.println("Возможные варианты топлива:");
                 for (FuelType FT : FuelType.values()) {
-                    System.out.println(FT.name() + " ");
+                    out.println(FT.name() + " ");
                 }
-                System.out.println();
-                System.out.println("Введите тип топлива: ");
+                out.println();
+                out.println("Введите тип топлива: ");
                 try {
                     String input = scanner.nextLine();
                     if (input == "") break;
                     fuelType = FuelType.valueOf(input.toUpperCase());
                     break;
                 } catch (IllegalArgumentException e) {
-                    System.out.println("Ошибка! Попробуйте еще раз.");
+                    out.println("Ошибка! Попробуйте еще раз.");
                 }
             }
             vehicle.setFuelType(fuelType);
@@ -335,125 +366,126 @@ public class Vehicle implements Comparable<Vehicle> {
 
     /**
      * Создаёт новый экземпляр класса на основе введённых данных
+     * @param scanner Источник ввода
+     * @param out Поток для подсказок пользователю
      */
-    public static Vehicle fromUser(){
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("Введите имя: ");
+    public static Vehicle fromUser(Scanner scanner, PrintStream out){
+        out.println("Введите имя: ");
         String name = scanner.nextLine().trim();
         while (name == "") {
-            System.out.println("Введите корректное значение. Поле не может быть пустым.");
+            out.println("Введите корректное значение. Поле не может быть пустым.");
             name = scanner.nextLine().trim();
         }
 
 
         Integer coordX = null;
-        System.out.println("Введите координату X, X <= 970: ");
+        out.println("Введите координату X, X <= 970: ");
         try {
             coordX = Integer.parseInt(scanner.nextLine());
         } catch (NumberFormatException e) {
-            System.out.println("Неправильный ввод: " + e.getMessage());
+            out.println("Неправильный ввод: " + e.getMessage());
         }
         while (coordX == null || coordX > 970) {
-            System.out.println("Ошибка! Попробуйте еще раз.");
-            System.out.println("Введите координату X, X <= 970: ");
+            out.println("Ошибка! Попробуйте еще раз.");
+            out.println("Введите координату X, X <= 970: ");
             try {
                 coordX = Integer.parseInt(scanner.nextLine());
             } catch (NumberFormatException e) {
-                System.out.println("Неправильный ввод: " + e.getMessage());
+                out.println("Неправильный ввод: " + e.getMessage());
             }
         }
 
 
         Integer coordY = null;
-        System.out.println("Введите координату Y, Y > -988: ");
+        out.println("Введите координату Y, Y > -988: ");
         try {
             coordY = Integer.parseInt(scanner.nextLine());
         } catch (NumberFormatException e) {
-            System.out.println("Неправильный ввод: " + e.getMessage());
+            out.println("Неправильный ввод: " + e.getMessage());
         }
         while (coordY == null || coordY <= -988) {
-            System.out.println("Ошибка! Попробуйте еще раз.");
-            System.out.println("Введите координату Y, Y > -988: ");
+            out.println("Ошибка! Попробуйте еще раз.");
+            out.println("Введите координату Y, Y > -988: ");
             try {
                 coordY = Integer.parseInt(scanner.nextLine());
             } catch (NumberFormatException e) {
-                System.out.println("Неправильный ввод: " + e.getMessage());
+                out.println("Неправильный ввод: " + e.getMessage());
             }
         }
 
         Coordinates coordinates = new Coordinates(coordX, coordY);
 
         Long enginePower = null;
-        System.out.println("Введите мощность двигателя: ");
+        out.println("Введите мощность двигателя: ");
         try {
             String input = scanner.nextLine();
             enginePower = Long.parseLong(input);
         } catch (NumberFormatException e) {
-            System.out.println("Неправильный ввод: " + e.getMessage());
+            out.println("Неправильный ввод: " + e.getMessage());
         }
         while (enginePower <= 0) {
-            System.out.println("Ошибка! Попробуйте еще раз.");
-            System.out.println("Введите мощность двигателя: ");
+            out.println("Ошибка! Попробуйте еще раз.");
+            out.println("Введите мощность двигателя: ");
             try {
                 String input = scanner.nextLine();
                 if (input == "") break;
                 enginePower = Long.parseLong(input);
             } catch (NumberFormatException e) {
-                System.out.println("Неправильный ввод: " + e.getMessage());
+                out.println("Неправильный ввод: " + e.getMessage());
             }
         }
 
         Integer numberOfWheels = null;
-        System.out.println("Введите количество колёс: ");
+        out.println("Введите количество колёс: ");
         try {
             numberOfWheels = Integer.parseInt(scanner.nextLine());
         } catch (NumberFormatException e) {
-            System.out.println("Неправильный ввод: " + e.getMessage());
+            out.println("Неправильный ввод: " + e.getMessage());
         }
         while (numberOfWheels == null || numberOfWheels <= 0) {
-            System.out.println("Ошибка! Попробуйте еще раз.");
-            System.out.println("Введите количество колёс: ");
+            out.println("Ошибка! Попробуйте еще раз.");
+            out.println("Введите количество колёс: ");
             try {
                 numberOfWheels = Integer.parseInt(scanner.nextLine());
             } catch (NumberFormatException e) {
-                System.out.println("Неправильный ввод: " + e.getMessage());
+                out.println("Неправильный ввод: " + e.getMessage());
             }
 
         }
 
         VehicleType vehicleType = null;
         while (true) {
-            System.out.println("Возможные виды транспорта:");
+            out.println("Возможные виды транспорта:");
             for (VehicleType VT : VehicleType.values()){
-                System.out.println(VT.name() + " ");
+                out.println(VT.name() + " ");
             }
-            System.out.println();
-            System.out.println("Введите вид транспорта: ");
+            out.println();
+            out.println("Введите вид транспорта: ");
             try {
                 String input = scanner.nextLine();
                 if (input == "") break;
                 vehicleType = VehicleType.valueOf(input.toUpperCase());
                 break;
             } catch (IllegalArgumentException e) {
-                System.out.println("Ошибка! Попробуйте еще раз.");
+                out.println("Ошибка! Попробуйте еще раз.");
             }
         }
 
         FuelType fuelType = null;
         while (true) {
-            System.out.println("Возможные варианты топлива:");
+            out.println("Возможные варианты топлива:");
             for (FuelType FT : FuelType.values()){
-                System.out.println(FT.name() + " ");
+                out.println(FT.name() + " ");
             }
-            System.out.println();
-            System.out.println("Введите тип топлива: ");
+            out.println();
+            out.println("Введите тип топлива: ");
             try {
                 String input = scanner.nextLine();
                 if (input == "") break;
                 fuelType = FuelType.valueOf(input.toUpperCase());
                 break;
             } catch (IllegalArgumentException e) {
-                System.out.println("Ошибка! Попробуйте еще раз.");
+                out.println("Ошибка! Попробуйте еще раз.");
             }
         }
 
@@ -0,0 +1,15 @@
+package src.script;
+
+import java.util.List;
+
+/**
+ * Команда скрипта после разбора
+ * @param line Номер строки скрипта, с которой начинается команда
+ * @param tokens Имя команды и её аргументы
+ * @param input Строки, которые команда читает как ввод пользователя (поля элемента и т.п.)
+ */
+public record ScriptCommand(int line, String[] tokens, List<String> input) {
+    public String name() {
+        return tokens[0];
+    }
+}
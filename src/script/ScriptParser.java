@@ -0,0 +1,77 @@
+package src.script;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбирает файл скрипта целиком до выполнения.
+ * Строки, которые команда в консоли запрашивала бы у пользователя (поля элемента для add, выбор поля
+ * и новое значение для update, мощность для remove_lower), приписываются к своей команде,
+ * поэтому при выполнении команда читает их из скрипта, а не из консоли.
+ */
+public class ScriptParser {
+    /**
+     * Количество строк ввода у add, add_if_max и add_if_min: имя, X, Y, мощность, колёса, тип, топливо
+     */
+    private static final int ELEMENT_LINES = 7;
+
+    public static List<ScriptCommand> parse(Path file) throws IOException {
+        return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    public static List<ScriptCommand> parse(List<String> lines) {
+        List<ScriptCommand> commands = new ArrayList<>();
+        int position = 0;
+        while (position < lines.size()) {
+            int lineNumber = position + 1;
+            String[] tokens = tokenize(lines.get(position++));
+            if (tokens.length == 0) {
+                continue;
+            }
+            int inputLines = inputLines(tokens[0], lines, position);
+            int end = Math.min(position + inputLines, lines.size());
+            commands.add(new ScriptCommand(lineNumber, tokens, List.copyOf(lines.subList(position, end))));
+            position = end;
+        }
+        return commands;
+    }
+
+    /**
+     * Сколько следующих строк команда читает как ввод
+     */
+    private static int inputLines(String command, List<String> lines, int position) {
+        return switch (command) {
+            case "add", "add_if_max", "add_if_min" -> ELEMENT_LINES;
+            case "remove_lower" -> 1;
+            // выбор поля и новое значение; координаты (2) вводятся двумя строками
+            case "update" -> position < lines.size() && lines.get(position).trim().equals("2") ? 3 : 2;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Делит строку на слова по пробельным символам без регулярных выражений
+     */
+    public static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<>(4);
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,18 @@
+package src.script;
+
+/**
+ * Итог выполнения одного скрипта
+ * @param script Путь к скрипту
+ * @param commands Количество выполненных команд, включая команды вложенных скриптов
+ * @param errors Количество команд, завершившихся ошибкой
+ * @param nanos Время выполнения в наносекундах
+ */
+public record ScriptReport(String script, long commands, long errors, long nanos) {
+    public double seconds() {
+        return nanos / 1e9;
+    }
+
+    public double commandsPerSecond() {
+        return nanos > 0 ? commands / seconds() : 0;
+    }
+}
@@ -0,0 +1,108 @@
+package src.script;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Выполняет независимые скрипты параллельно на пуле рабочих потоков.
+ * Каждый скрипт выполняется своим исполнителем и пишет в свой буфер, поэтому вывод скриптов
+ * не перемешивается: он печатается целиком в порядке перечисления скриптов после их завершения.
+ */
+public class ScriptScheduler {
+    /**
+     * Выполняет скрипт: получает имя файла и поток для вывода, возвращает итог или null,
+     * если скрипт не удалось запустить
+     */
+    @FunctionalInterface
+    public interface ScriptRunner {
+        ScriptReport run(String fileName, PrintStream out);
+    }
+
+    /**
+     * Результат выполнения скрипта вместе с его выводом
+     */
+    public record Outcome(String fileName, ScriptReport report, String output) {
+    }
+
+    private final int workers;
+
+    public ScriptScheduler(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * @param fileNames Скрипты для выполнения
+     * @param runner Исполнитель одного скрипта; вызывается из рабочих потоков
+     * Запускает скрипты и дожидается завершения всех. Результаты идут в порядке fileNames.
+     */
+    public List<Outcome> run(List<String> fileNames, ScriptRunner runner) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, fileNames.size()), r -> {
+            Thread thread = new Thread(r, "script-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Outcome>> futures = new ArrayList<>(fileNames.size());
+            for (String fileName : fileNames) {
+                futures.add(executor.submit(() -> {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+                    ScriptReport report = runner.run(fileName, out);
+                    out.flush();
+                    return new Outcome(fileName, report, buffer.toString(StandardCharsets.UTF_8));
+                }));
+            }
+
+            List<Outcome> outcomes = new ArrayList<>(futures.size());
+            for (Future<Outcome> future : futures) {
+                outcomes.add(future.get());
+            }
+            return outcomes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Выводит сводку: строка на каждый скрипт и итог по всем скриптам за общее время wallNanos
+     */
+    public static void printReport(List<Outcome> outcomes, long wallNanos, PrintStream out) {
+        long commands = 0;
+        long errors = 0;
+        long busyNanos = 0;
+        out.printf("%-40s %10s %8s %10s %12s%n", "Скрипт", "Команд", "Ошибок", "Время, с", "Команд/с");
+        for (Outcome outcome : outcomes) {
+            ScriptReport report = outcome.report();
+            if (report == null) {
+                out.printf("%-40s %s%n", outcome.fileName(), "не выполнен");
+                continue;
+            }
+            out.printf("%-40s %10d %8d %10.3f %12.0f%n", outcome.fileName(), report.commands(), report.errors(),
+                    report.seconds(), report.commandsPerSecond());
+            commands += report.commands();
+            errors += report.errors();
+            busyNanos += report.nanos();
+        }
+        double wallSeconds = wallNanos / 1e9;
+        out.printf("%-40s %10d %8d %10.3f %12.0f%n", "Всего", commands, errors, wallSeconds,
+                wallSeconds > 0 ? commands / wallSeconds : 0);
+        if (wallNanos > 0) {
+            out.printf("Суммарное время скриптов %.3f с, параллельность %.2f%n", busyNanos / 1e9,
+                    (double) busyNanos / wallNanos);
+        }
+    }
+}
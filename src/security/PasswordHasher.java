@@ -0,0 +1,27 @@
+package src.security;
+
+/**
+ * Способ хранения паролей. Сохранённый хэш начинается с префикса алгоритма ("$имя$"),
+ * поэтому хэши разных алгоритмов и параметров могут храниться в одной таблице.
+ */
+public interface PasswordHasher {
+    /**
+     * Возвращает строку для хранения: префикс алгоритма, параметры и хэш пароля
+     */
+    String hash(String password);
+
+    /**
+     * Распознаёт ли хэшер формат сохранённой строки
+     */
+    boolean supports(String stored);
+
+    /**
+     * Проверяет пароль по сохранённой строке поддерживаемого формата
+     */
+    boolean verify(String password, String stored);
+
+    /**
+     * Нужно ли пересчитать сохранённый хэш: он в устаревшем формате или с другими параметрами
+     */
+    boolean needsRehash(String stored);
+}
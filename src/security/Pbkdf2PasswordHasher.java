@@ -0,0 +1,87 @@
+package src.security;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PBKDF2-HMAC-SHA256 из JDK со случайной солью в формате
+ * "$pbkdf2-sha256$итерации$соль$хэш" (соль и хэш в Base64 без дополнения).
+ * <p>
+ * Число итераций задаёт стоимость проверки; хэш с меньшим числом итераций проверяется по своему
+ * числу, но требует пересчёта. SecretKeyFactory у каждого потока свой и используется повторно.
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+    static final String PREFIX = "$pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private final int iterations;
+
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Число итераций должно быть положительным");
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return PREFIX + iterations + '$' + ENCODER.encodeToString(salt) + '$'
+                + ENCODER.encodeToString(derive(password, salt, iterations));
+    }
+
+    @Override
+    public boolean supports(String stored) {
+        return stored.startsWith(PREFIX);
+    }
+
+    @Override
+    public boolean verify(String password, String stored) {
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[0]);
+            byte[] salt = DECODER.decode(parts[1]);
+            byte[] expected = DECODER.decode(parts[2]);
+            return storedIterations > 0 && MessageDigest.isEqual(derive(password, salt, storedIterations), expected);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String stored) {
+        int end = stored.indexOf('$', PREFIX.length());
+        return end < 0 || !stored.substring(PREFIX.length(), end).equals(Integer.toString(iterations));
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package src.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-224 без соли в формате "$sha224$" + 56 шестнадцатеричных цифр.
+ * <p>
+ * Понимает и старый формат без префикса: шестнадцатеричная запись без ведущих нулей,
+ * дополненная нулями только до 32 символов. Такие хэши проверяются, но всегда требуют пересчёта.
+ * Объект MessageDigest у каждого потока свой и используется повторно.
+ */
+public class Sha224PasswordHasher implements PasswordHasher {
+    static final String PREFIX = "$sha224$";
+    private static final int LEGACY_MIN_LENGTH = 32;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-224");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    @Override
+    public String hash(String password) {
+        return PREFIX + hex(digest(password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public boolean supports(String stored) {
+        return stored.startsWith(PREFIX) || !stored.startsWith("$");
+    }
+
+    @Override
+    public boolean verify(String password, String stored) {
+        String expected = stored.startsWith(PREFIX) ? hash(password) : legacyHash(password);
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), stored.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public boolean needsRehash(String stored) {
+        return !stored.startsWith(PREFIX);
+    }
+
+    /**
+     * Хэш в старом формате SecurityUtil.hash224: без ведущих нулей, но не короче 32 символов.
+     * Как и прежде, пароль кодируется кодировкой по умолчанию.
+     */
+    public static String legacyHash(String password) {
+        char[] hex = hexChars(digest(password.getBytes()));
+        int start = 0;
+        while (start < hex.length - 1 && hex[start] == '0') {
+            start++;
+        }
+        start = Math.min(start, hex.length - LEGACY_MIN_LENGTH);
+        return new String(hex, start, hex.length - start);
+    }
+
+    private static byte[] digest(byte[] password) {
+        return DIGEST.get().digest(password);
+    }
+
+    static String hex(byte[] bytes) {
+        return new String(hexChars(bytes));
+    }
+
+    private static char[] hexChars(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return hex;
+    }
+}